@@ -0,0 +1,93 @@
+package sim.app.firecontrol;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Batch auction over all the tasks.
+ * All the offers of a step go in a single priority queue, best offer first,
+ * and all the tasks are cleared together: an offer is accepted if its bidder
+ * is still free and its task still needs UAVs. A UAV bidding for several
+ * tasks gets the best one still open. Clearing P offers costs O(P log P).
+ */
+public class AuctionAllocator extends TaskAllocator{
+	private static final long serialVersionUID = 1L;
+
+	//best offer first, ties broken by bidder and task for reproducibility
+	private static final Comparator<Bid> BEST_FIRST = new Comparator<Bid>(){
+		public int compare(Bid a, Bid b){
+			int c = Double.compare(b.offer, a.offer);
+			if(c == 0)
+				c = Integer.compare(a.bidder.id, b.bidder.id);
+			if(c == 0)
+				c = Integer.compare(a.task.id, b.task.id);
+			return c;
+		}
+	};
+
+	@Override
+	protected void allocate(Ignite ignite, List<Bid> bids){
+		if(bids.isEmpty()){
+			return;
+		}
+
+		//the last offer of a UAV for a task replaces the previous ones
+		Map<Task, Map<UAV, Bid>> latest = new HashMap<>();
+		for(Bid bid : bids){
+			Map<UAV, Bid> offers = latest.get(bid.task);
+			if(offers == null){
+				offers = new HashMap<>();
+				latest.put(bid.task, offers);
+			}
+			offers.put(bid.bidder, bid);
+		}
+
+		//tasks already extinguished are closed, the others take offers
+		int totalFire = totalFire(ignite);
+		Map<Task, Integer> open = new HashMap<>();
+		for(Task task : new ArrayList<>(latest.keySet())){
+			if(task.manager == null || !ignite.tasks.contains(task)){
+				continue;
+			}
+			if(task.isDone()){
+				drop(ignite, task);
+				continue;
+			}
+			int needed = uavNeeded(ignite, task, totalFire) - task.UAVassigned;
+			if(needed > 0){
+				open.put(task, needed);
+			}
+		}
+
+		PriorityQueue<Bid> queue = new PriorityQueue<>(Math.max(1, bids.size()), BEST_FIRST);
+		for(Map.Entry<Task, Map<UAV, Bid>> entry : latest.entrySet()){
+			if(open.containsKey(entry.getKey())){
+				for(Bid bid : entry.getValue().values()){
+					if(bid.offer > 0 && bid.bidder.myTask == null)
+						queue.add(bid);
+				}
+			}
+		}
+
+		Set<UAV> assigned = new HashSet<>();
+		while(!queue.isEmpty() && !open.isEmpty()){
+			Bid bid = queue.poll();
+			Integer needed = open.get(bid.task);
+			if(needed == null || bid.bidder.myTask != null || !assigned.add(bid.bidder)){
+				continue;
+			}
+			assign(ignite, bid.bidder, bid.task);
+			if(needed == 1){
+				open.remove(bid.task);
+			} else {
+				open.put(bid.task, needed - 1);
+			}
+		}
+	}
+}
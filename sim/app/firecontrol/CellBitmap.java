@@ -0,0 +1,184 @@
+package sim.app.firecontrol;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Compressed set of cells of the forest, identified by their index.
+ * The indices are split in blocks of 1024 bits and only the blocks with at
+ * least one bit set are stored, sorted by their key (index/1024). A UAV that
+ * only visited a corner of the map only pays for the blocks of that corner.
+ */
+public class CellBitmap implements java.io.Serializable{
+	private static final long serialVersionUID = 1L;
+
+	static final int SHIFT = 10; //1024 bits per block
+	static final int WORDS = (1 << SHIFT) >>> 6;
+
+	private int[] keys = new int[0];
+	private long[][] blocks = new long[0][];
+	private int size = 0; //number of blocks in use
+
+	public boolean get(int index){
+		int b = find(index >>> SHIFT);
+		return b >= 0 && (blocks[b][(index >>> 6) & (WORDS-1)] & (1L << index)) != 0;
+	}
+
+	/**
+	 * Set the bit of the given cell.
+	 * @return true if the bit was not set
+	 */
+	public boolean set(int index){
+		int b = find(index >>> SHIFT);
+		if(b < 0){
+			b = insert(-b-1, index >>> SHIFT, new long[WORDS]);
+		}
+		long[] block = blocks[b];
+		int w = (index >>> 6) & (WORDS-1);
+		long old = block[w];
+		block[w] = old | (1L << index);
+		return block[w] != old;
+	}
+
+	/**
+	 * Clear the bit of the given cell.
+	 * @return true if the bit was set
+	 */
+	public boolean clear(int index){
+		int b = find(index >>> SHIFT);
+		if(b < 0){
+			return false;
+		}
+		long[] block = blocks[b];
+		int w = (index >>> 6) & (WORDS-1);
+		long old = block[w];
+		block[w] = old & ~(1L << index);
+		return block[w] != old;
+	}
+
+	/**
+	 * @return the first cell of the bitmap from the given index on, or -1
+	 */
+	public int nextSetBit(int from){
+		int b = find(from >>> SHIFT);
+		if(b < 0){
+			b = -b-1;
+		}
+		for(; b<size; b++){
+			int base = keys[b] << SHIFT;
+			int start = Math.max(from - base, 0);
+			long[] block = blocks[b];
+			for(int w=start >>> 6; w<WORDS; w++){
+				long word = block[w];
+				if(w == start >>> 6){
+					word &= -1L << start;
+				}
+				if(word != 0){
+					return base + (w << 6) + Long.numberOfTrailingZeros(word);
+				}
+			}
+		}
+		return -1;
+	}
+
+	public boolean isEmpty(){
+		for(int b=0; b<size; b++){
+			for(long word : blocks[b]){
+				if(word != 0){
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	public int cardinality(){
+		int count = 0;
+		for(int b=0; b<size; b++){
+			for(long word : blocks[b]){
+				count += Long.bitCount(word);
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Add all the cells of the other bitmap to this one, block by block.
+	 */
+	public void or(CellBitmap other){
+		for(int o=0; o<other.size; o++){
+			int b = find(other.keys[o]);
+			if(b < 0){
+				insert(-b-1, other.keys[o], other.blocks[o].clone());
+			} else {
+				long[] block = blocks[b];
+				long[] from = other.blocks[o];
+				for(int w=0; w<WORDS; w++){
+					block[w] |= from[w];
+				}
+			}
+		}
+	}
+
+	/**
+	 * Remove all the cells of the other bitmap from this one, block by block.
+	 */
+	public void andNot(CellBitmap other){
+		for(int o=0; o<other.size; o++){
+			int b = find(other.keys[o]);
+			if(b >= 0){
+				long[] block = blocks[b];
+				long[] from = other.blocks[o];
+				for(int w=0; w<WORDS; w++){
+					block[w] &= ~from[w];
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the memory used by the blocks, in bytes
+	 */
+	public long bytes(){
+		return size*(WORDS*8L + 4);
+	}
+
+	//the blocks in use, in a checkpoint (see Knowledge)
+	void write(Checkpoint.Output out) throws IOException{
+		out.writeInt(size);
+		out.writeInts(keys, 0, size);
+		for(int b=0; b<size; b++){
+			out.writeLongs(blocks[b], 0, WORDS);
+		}
+	}
+
+	static CellBitmap read(Checkpoint.Input in) throws IOException{
+		CellBitmap bitmap = new CellBitmap();
+		bitmap.size = in.readInt();
+		bitmap.keys = new int[bitmap.size];
+		bitmap.blocks = new long[bitmap.size][];
+		in.readInts(bitmap.keys, 0, bitmap.size);
+		for(int b=0; b<bitmap.size; b++){
+			bitmap.blocks[b] = new long[WORDS];
+			in.readLongs(bitmap.blocks[b], 0, WORDS);
+		}
+		return bitmap;
+	}
+
+	private int find(int key){
+		return Arrays.binarySearch(keys, 0, size, key);
+	}
+
+	private int insert(int position, int key, long[] block){
+		if(size == keys.length){
+			keys = Arrays.copyOf(keys, Math.max(4, size*2));
+			blocks = Arrays.copyOf(blocks, Math.max(4, size*2));
+		}
+		System.arraycopy(keys, position, keys, position+1, size-position);
+		System.arraycopy(blocks, position, blocks, position+1, size-position);
+		keys[position] = key;
+		blocks[position] = block;
+		size++;
+		return position;
+	}
+}
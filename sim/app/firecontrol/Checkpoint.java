@@ -0,0 +1,222 @@
+package sim.app.firecontrol;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+/**
+ * Compact encoding of the large arrays of the simulation (tiles of the
+ * forest, clusters, frontier, knowledge of the UAVs) in a checkpoint.
+ * Instead of serializing every array as an object, their values are written
+ * one after the other in blocks of BLOCK bytes. The blocks are written in
+ * the checkpoint stream where the object would be: the classes use Output
+ * in their writeObject and Input in their readObject, in the same order.
+ * The blocks are not compressed, the gzip stream of the checkpoint is.
+ *
+ * block: length (int), bytes; -1 after the last block.
+ * A value is never split between two blocks.
+ *
+ * @see Ignite#writeToCheckpoint(java.io.OutputStream)
+ */
+final class Checkpoint{
+
+	//bytes written at a time
+	static final int BLOCK = 1 << 16;
+
+	private Checkpoint(){
+	}
+
+	/**
+	 * Values written in blocks to the stream of the checkpoint.
+	 * Close it to write the last block.
+	 */
+	static class Output{
+		private final ObjectOutputStream out;
+		private final ByteBuffer block = ByteBuffer.allocate(BLOCK);
+
+		Output(ObjectOutputStream out){
+			this.out = out;
+		}
+
+		void writeBoolean(boolean value) throws IOException{
+			writeByte(value ? 1 : 0);
+		}
+
+		void writeByte(int value) throws IOException{
+			ensure(1);
+			block.put((byte)value);
+		}
+
+		void writeInt(int value) throws IOException{
+			ensure(4);
+			block.putInt(value);
+		}
+
+		void writeLong(long value) throws IOException{
+			ensure(8);
+			block.putLong(value);
+		}
+
+		void writeBytes(byte[] values, int offset, int length) throws IOException{
+			while(length > 0){
+				ensure(1);
+				int n = Math.min(length, block.remaining());
+				block.put(values, offset, n);
+				offset += n;
+				length -= n;
+			}
+		}
+
+		void writeInts(int[] values, int offset, int length) throws IOException{
+			for(int i=offset; i<offset+length; i++){
+				writeInt(values[i]);
+			}
+		}
+
+		void writeLongs(long[] values, int offset, int length) throws IOException{
+			for(int i=offset; i<offset+length; i++){
+				writeLong(values[i]);
+			}
+		}
+
+		void writeFloats(float[] values, int offset, int length) throws IOException{
+			for(int i=offset; i<offset+length; i++){
+				writeInt(Float.floatToRawIntBits(values[i]));
+			}
+		}
+
+		/**
+		 * Write the last block and the end of the blocks.
+		 */
+		void close() throws IOException{
+			flush();
+			out.writeInt(-1);
+		}
+
+		private void ensure(int bytes) throws IOException{
+			if(block.remaining() < bytes){
+				flush();
+			}
+		}
+
+		private void flush() throws IOException{
+			if(block.position() == 0){
+				return;
+			}
+			out.writeInt(block.position());
+			out.write(block.array(), 0, block.position());
+			block.clear();
+		}
+	}
+
+	/**
+	 * Values read from the blocks written by an Output.
+	 * Close it to skip to the end of the blocks.
+	 */
+	static class Input{
+		private final ObjectInputStream in;
+		private final ByteBuffer block = ByteBuffer.allocate(BLOCK);
+		private boolean ended;
+
+		Input(ObjectInputStream in){
+			this.in = in;
+			block.limit(0);
+		}
+
+		boolean readBoolean() throws IOException{
+			return readByte() != 0;
+		}
+
+		byte readByte() throws IOException{
+			ensure(1);
+			return block.get();
+		}
+
+		int readInt() throws IOException{
+			ensure(4);
+			return block.getInt();
+		}
+
+		long readLong() throws IOException{
+			ensure(8);
+			return block.getLong();
+		}
+
+		void readBytes(byte[] values, int offset, int length) throws IOException{
+			while(length > 0){
+				ensure(1);
+				int n = Math.min(length, block.remaining());
+				block.get(values, offset, n);
+				offset += n;
+				length -= n;
+			}
+		}
+
+		void readInts(int[] values, int offset, int length) throws IOException{
+			for(int i=offset; i<offset+length; i++){
+				values[i] = readInt();
+			}
+		}
+
+		void readLongs(long[] values, int offset, int length) throws IOException{
+			for(int i=offset; i<offset+length; i++){
+				values[i] = readLong();
+			}
+		}
+
+		void readFloats(float[] values, int offset, int length) throws IOException{
+			for(int i=offset; i<offset+length; i++){
+				values[i] = Float.intBitsToFloat(readInt());
+			}
+		}
+
+		/**
+		 * Skip the blocks left, up to the end of the blocks.
+		 */
+		void close() throws IOException{
+			while(!ended){
+				next();
+			}
+		}
+
+		private void ensure(int bytes) throws IOException{
+			if(block.remaining() < bytes){
+				next();
+				if(ended || block.remaining() < bytes){
+					throw new IOException("Checkpoint blocks ended prematurely");
+				}
+			}
+		}
+
+		private void next() throws IOException{
+			int length = in.readInt();
+			if(length < 0){
+				ended = true;
+				block.limit(0);
+				return;
+			}
+			if(length > BLOCK){
+				throw new IOException("Checkpoint block is corrupted");
+			}
+			in.readFully(block.array(), 0, length);
+			block.position(0);
+			block.limit(length);
+		}
+	}
+
+	/**
+	 * Drop what has been written to the file after the given length, i.e.
+	 * after the checkpoint a run is restored from.
+	 */
+	static void truncate(String fileName, long length) throws IOException{
+		File file = new File(fileName);
+		if(file.length() > length){
+			try(RandomAccessFile raf = new RandomAccessFile(file, "rw")){
+				raf.setLength(length);
+			}
+		}
+	}
+}
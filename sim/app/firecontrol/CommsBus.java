@@ -0,0 +1,131 @@
+package sim.app.firecontrol;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedList;
+
+import sim.engine.SimState;
+import sim.engine.Steppable;
+import sim.util.Bag;
+
+/**
+ * Communication layer between the UAVs.
+ * At the beginning of every step the bus collects the packets sent by the
+ * UAVs (and their positions) and buckets them in a uniform grid whose cells
+ * are as large as the communication range. The mailbox of a UAV, and the
+ * UAVs within its range, are then found in the 3x3 buckets around it,
+ * instead of checking every UAV of the swarm.
+ *
+ * Packets sent during a step are delivered at the next one.
+ */
+public class CommsBus implements Steppable{
+	private static final long serialVersionUID = 1L;
+
+	//packets are delivered in the order of the sender id
+	private static final Comparator<DataPacket> BY_SENDER = new Comparator<DataPacket>(){
+		public int compare(DataPacket a, DataPacket b){
+			return Integer.compare(a.header.id, b.header.id);
+		}
+	};
+
+	private double range;
+	private int columns;
+	private int rows;
+	private Bag[] packets; //buckets of DataPacket, by position of the payload
+	private Bag[] agents; //buckets of UAV, by position of the UAV
+
+	@Override
+	public void step(SimState state){
+		rebuild((Ignite) state);
+	}
+
+	/**
+	 * Bucket all the packets and the UAVs of the simulation.
+	 */
+	public void rebuild(Ignite ignite){
+		double range = Math.max(ignite.communicationRange, 1);
+		int columns = (int)Math.ceil(ignite.width/range);
+		int rows = (int)Math.ceil(ignite.height/range);
+		if(packets == null || range != this.range || columns != this.columns || rows != this.rows){
+			this.range = range;
+			this.columns = columns;
+			this.rows = rows;
+			packets = new Bag[columns*rows];
+			agents = new Bag[columns*rows];
+			for(int i=0; i<packets.length; i++){
+				packets[i] = new Bag();
+				agents[i] = new Bag();
+			}
+		} else {
+			for(int i=0; i<packets.length; i++){
+				packets[i].clear();
+				agents[i].clear();
+			}
+		}
+
+		for(UAV uav : ignite.UAVs){
+			//where the UAV is at the end of the previous step
+			uav.locate(ignite.schedule.getSteps() - 1);
+			agents[bucket(uav.x, uav.y)].add(uav);
+			if(uav.data != null){
+				packets[bucket(uav.data.payload.position.x, uav.data.payload.position.y)].add(uav.data);
+			}
+		}
+	}
+
+	/**
+	 * @return the packets sent by the other UAVs that are within the communication
+	 * range of the given UAV, in the order of the sender id
+	 */
+	public LinkedList<DataPacket> mailbox(UAV uav){
+		LinkedList<DataPacket> mailbox = new LinkedList<>();
+		int column = column(uav.x);
+		int row = row(uav.y);
+		for(int c=Math.max(column-1, 0); c<=Math.min(column+1, columns-1); c++){
+			for(int r=Math.max(row-1, 0); r<=Math.min(row+1, rows-1); r++){
+				Bag bucket = packets[c*rows + r];
+				for(int i=0; i<bucket.numObjs; i++){
+					DataPacket dp = (DataPacket)bucket.objs[i];
+					if(dp.header.id != uav.id && uav.isInCommunicationRange(dp.payload.position)){
+						mailbox.add(dp);
+					}
+				}
+			}
+		}
+		Collections.sort(mailbox, BY_SENDER);
+		return mailbox;
+	}
+
+	/**
+	 * @return the UAVs (including the given one) within its communication range
+	 */
+	public Bag agentsInRange(UAV uav){
+		Bag inRange = new Bag();
+		int column = column(uav.x);
+		int row = row(uav.y);
+		for(int c=Math.max(column-1, 0); c<=Math.min(column+1, columns-1); c++){
+			for(int r=Math.max(row-1, 0); r<=Math.min(row+1, rows-1); r++){
+				Bag bucket = agents[c*rows + r];
+				for(int i=0; i<bucket.numObjs; i++){
+					UAV other = (UAV)bucket.objs[i];
+					if(uav.isInCommunicationRange(other.x, other.y, other.z)){
+						inRange.add(other);
+					}
+				}
+			}
+		}
+		return inRange;
+	}
+
+	private int bucket(double x, double y){
+		return column(x)*rows + row(y);
+	}
+
+	private int column(double x){
+		return Math.min(Math.max((int)(x/range), 0), columns-1);
+	}
+
+	private int row(double y){
+		return Math.min(Math.max((int)(y/range), 0), rows-1);
+	}
+}
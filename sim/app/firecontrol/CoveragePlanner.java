@@ -0,0 +1,238 @@
+package sim.app.firecontrol;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import sim.util.Int2D;
+
+/**
+ * Selection of the next cell to visit for the UAVs working on a task.
+ * The planner keeps a distance field over the area of the task: for every
+ * cell, the distance from the closest cell on fire and that cell. A UAV moves
+ * along both axes at the same time, so the distance is the number of moves
+ * on the 8-connected grid and the field is a BFS from all the fires at once.
+ *
+ * The field is shared by all the UAVs of the task and rebuilt only when the
+ * task changes. A UAV looks up its own position to get the closest fire; the
+ * fires already claimed by other UAVs of the task are left to them, and the
+ * closest free one is found walking the field outward from the UAV.
+ *
+ * @see Task
+ */
+public class CoveragePlanner implements java.io.Serializable{
+	private static final long serialVersionUID = 1L;
+
+	//cells around the fires covered by the field
+	static final int MARGIN = 2;
+
+	private Task task;
+	//version of the task the field has been built for
+	private int version = -1;
+
+	//area of the field
+	private int x0, y0, width, height;
+	//distance from the closest fire, and index of that fire (-1 if none)
+	private int[] distance = new int[0];
+	private int[] nearest = new int[0];
+	private int[] queue = new int[0];
+	private int fires;
+	//fires of the field not claimed by a UAV of the task, at most
+	private int unclaimed;
+
+	//fires that are the target of a UAV
+	private Map<Integer, UAV> claimedBy = new HashMap<>();
+	private Map<UAV, Integer> claimOf = new HashMap<>();
+
+	public CoveragePlanner(Task task){
+		this.task = task;
+	}
+
+	/**
+	 * Select the next fire of the task for the given UAV and claim it.
+	 * @return the cell to visit, or null if the task has no fire left
+	 */
+	public synchronized Int2D nextTarget(Ignite ignite, UAV uav){
+		Forest forest = ignite.forest;
+		release(uav);
+		if(version != task.version){
+			rebuild(forest);
+		}
+		int target = lookup(uav);
+		//cells that burned out do not change the task, they are found here
+		if(target >= 0 && !forest.getType(target).equals(CellType.FIRE)){
+			rebuild(forest);
+			target = lookup(uav);
+		}
+		if(target < 0){
+			return null;
+		}
+
+		UAV other = claimedBy.get(target);
+		if(other != null && other.myTask == task){
+			int free = closestUnclaimed(forest, uav);
+			if(free >= 0){
+				target = free;
+				unclaimed--;
+			}
+		} else {
+			unclaimed--;
+		}
+		claimedBy.put(target, uav);
+		claimOf.put(uav, target);
+		return new Int2D(forest.x(target), forest.y(target));
+	}
+
+	/**
+	 * Drop the fire claimed by the UAV, if any.
+	 */
+	public synchronized void release(UAV uav){
+		Integer target = claimOf.remove(uav);
+		if(target != null && claimedBy.get(target) == uav){
+			claimedBy.remove(target);
+			unclaimed++;
+		}
+	}
+
+	//closest fire from the position of the UAV, or -1
+	private int lookup(UAV uav){
+		if(fires == 0){
+			return -1;
+		}
+		int x = Math.max(x0, Math.min(x0 + width - 1, (int)uav.x));
+		int y = Math.max(y0, Math.min(y0 + height - 1, (int)uav.y));
+		return nearest[(x - x0)*height + (y - y0)];
+	}
+
+	//closest fire of the task not claimed by another UAV of the task, or -1.
+	//The field is walked ring by ring around the cell of the UAV, so the cost
+	//is the area between the UAV and that fire, whatever the size of the task.
+	//The UAV is anywhere in its cell, the ring after the first fire found may
+	//hold a closer one
+	private int closestUnclaimed(Forest forest, UAV uav){
+		if(unclaimed <= 0){
+			return -1;
+		}
+		int ux = (int)uav.x;
+		int uy = (int)uav.y;
+		int x1 = x0 + width - 1;
+		int y1 = y0 + height - 1;
+		int from = Math.max(Math.max(x0 - ux, ux - x1), Math.max(y0 - uy, uy - y1));
+		int to = Math.max(Math.max(ux - x0, x1 - ux), Math.max(uy - y0, y1 - uy));
+		int best = -1;
+		for(int r=Math.max(from, 0); r<=to; r++){
+			//top and bottom rows of the ring, then the sides
+			for(int x=Math.max(ux - r, x0); x<=Math.min(ux + r, x1); x++){
+				best = closer(forest, uav, best, free(forest, x, uy - r));
+				if(r > 0){
+					best = closer(forest, uav, best, free(forest, x, uy + r));
+				}
+			}
+			for(int y=Math.max(uy - r + 1, y0); y<=Math.min(uy + r - 1, y1); y++){
+				best = closer(forest, uav, best, free(forest, ux - r, y));
+				best = closer(forest, uav, best, free(forest, ux + r, y));
+			}
+			if(best >= 0 && to > r + 1){
+				to = r + 1;
+			}
+		}
+		if(best < 0){
+			//the fires left are claimed or burned out
+			unclaimed = 0;
+		}
+		return best;
+	}
+
+	//the cell at the given position if it is a fire not claimed by the task, or -1
+	private int free(Forest forest, int x, int y){
+		if(x < x0 || y < y0 || x >= x0 + width || y >= y0 + height || distance[(x - x0)*height + (y - y0)] != 0){
+			return -1;
+		}
+		int index = forest.index(x, y);
+		UAV other = claimedBy.get(index);
+		if(forest.getType(index).equals(CellType.FIRE) && (other == null || other.myTask != task)){
+			return index;
+		}
+		return -1;
+	}
+
+	//the closest of the two cells from the UAV, the first one on a tie
+	private static int closer(Forest forest, UAV uav, int a, int b){
+		if(a < 0 || b < 0){
+			return a < 0 ? b : a;
+		}
+		double da = Math.max(Math.abs(forest.x(a) - uav.x), Math.abs(forest.y(a) - uav.y));
+		double db = Math.max(Math.abs(forest.x(b) - uav.x), Math.abs(forest.y(b) - uav.y));
+		return db < da ? b : a;
+	}
+
+	//multi-source BFS from all the fires of the task, over their bounding box.
+	//The cells of the task that burned out are left out of the box
+	private void rebuild(Forest forest){
+		version = task.version;
+		int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+		int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+		for(WorldCell cell : task.cells){
+			if(!forest.getType(cell.x, cell.y).equals(CellType.FIRE)){
+				continue;
+			}
+			minX = Math.min(minX, cell.x);
+			minY = Math.min(minY, cell.y);
+			maxX = Math.max(maxX, cell.x);
+			maxY = Math.max(maxY, cell.y);
+		}
+		fires = 0;
+		if(minX > maxX){
+			return;
+		}
+		x0 = Math.max(0, minX - MARGIN);
+		y0 = Math.max(0, minY - MARGIN);
+		width = Math.min(forest.width, maxX + MARGIN + 1) - x0;
+		height = Math.min(forest.height, maxY + MARGIN + 1) - y0;
+
+		int size = width*height;
+		if(distance.length < size){
+			distance = new int[size];
+			nearest = new int[size];
+			queue = new int[size];
+		}
+		Arrays.fill(distance, 0, size, -1);
+		int tail = 0;
+		for(WorldCell cell : task.cells){
+			int index = forest.index(cell.x, cell.y);
+			if(forest.getType(index).equals(CellType.FIRE)){
+				int local = (cell.x - x0)*height + (cell.y - y0);
+				distance[local] = 0;
+				nearest[local] = index;
+				queue[tail++] = local;
+			}
+		}
+		fires = tail;
+		unclaimed = fires;
+		for(Map.Entry<Integer, UAV> claim : claimedBy.entrySet()){
+			int x = forest.x(claim.getKey()) - x0;
+			int y = forest.y(claim.getKey()) - y0;
+			if(claim.getValue().myTask == task && x >= 0 && y >= 0 && x < width && y < height && distance[x*height + y] == 0){
+				unclaimed--;
+			}
+		}
+
+		for(int head=0; head<tail; head++){
+			int local = queue[head];
+			int x = local/height;
+			int y = local%height;
+			for(int d=0; d<8; d++){
+				int nx = x + SpreadKernel.DX[d];
+				int ny = y + SpreadKernel.DY[d];
+				if(nx >= 0 && ny >= 0 && nx < width && ny < height){
+					int next = nx*height + ny;
+					if(distance[next] < 0){
+						distance[next] = distance[local] + 1;
+						nearest[next] = nearest[local];
+						queue[tail++] = next;
+					}
+				}
+			}
+		}
+	}
+}
@@ -1,41 +1,45 @@
 /*
  * Simple structure for a data packet.
+ * The header identifies a packet by the id of its sender and a per-sender
+ * sequence number, and stamps it with the simulation step it was sent at.
+ * The payload only carries the knowledge learned by the sender since its
+ * previous packet, never a reference to the knowledge of the sender.
  *
  * @author dario albani
  * @mail dario.albani@istc.cnr.it
  */
 
 package sim.app.firecontrol;
-import java.text.SimpleDateFormat;
-import java.util.Set;
-import java.util.Date;
 import sim.util.Double3D;
 
-public class DataPacket{
+public class DataPacket implements java.io.Serializable{
+	private static final long serialVersionUID = 1L;
 
-	public class Header{
-		public String timestamp;
+	public static class Header implements java.io.Serializable{
+		private static final long serialVersionUID = 1L;
+
+		public long step; //simulation step the packet was sent at
+		public int seq; //sequence number of the packet for its sender
 		public int id;
 		public boolean taskProposal;
-		public Header(int id, boolean taskProposal){
-			//TODO
-			//System.err.println("TODO: You have to define the header. Maybe a timestamp and an ID?");
-			this.timestamp = new SimpleDateFormat("yyyy.MM.dd.HH.mm.ss").format(new Date());
+		public Header(int id, int seq, long step, boolean taskProposal){
+			this.step = step;
+			this.seq = seq;
 			this.id = id;
 			this.taskProposal = taskProposal;
 		}
 	};
 
-	public class Payload{
+	public static class Payload implements java.io.Serializable{
+		private static final long serialVersionUID = 1L;
+
 		public Double3D position;
-		public Set<WorldCell> knownCells;
+		public Knowledge knowledge; //cells learned since the previous packet
 		public Task task;
 
-		public Payload(Double3D position, Set<WorldCell> knownCells, Task task){
-			//TODO
-			//System.err.println("TODO: You have to define the payload. What are you going to share?");
+		public Payload(Double3D position, Knowledge knowledge, Task task){
 			this.position = position;
-			this.knownCells = knownCells;
+			this.knowledge = knowledge;
 			this.task = task;
 		}
 	};
@@ -43,12 +47,16 @@ public class DataPacket{
 	public Header header;
 	public Payload payload;
 
-	//TODO
-	//define the data packet according to your payload and your header.
-	//please, note that if you do not define a good header you could have problem
-	//with duplicates messages
-	public DataPacket(int id, Double3D position, Set<WorldCell> knownCells, Task task, boolean taskProposal){
-		this.header = new Header(id, taskProposal);
-		this.payload = new Payload(position, knownCells, task);
+	public DataPacket(int id, int seq, long step, Double3D position, Knowledge knowledge, Task task, boolean taskProposal){
+		this.header = new Header(id, seq, step, taskProposal);
+		this.payload = new Payload(position, knowledge, task);
+	}
+
+	/**
+	 * @return true if this packet has already been received, i.e. its sequence
+	 * number is not newer than the last one received from the same sender
+	 */
+	public boolean isDuplicate(int[] lastSeq){
+		return header.id < lastSeq.length && header.seq <= lastSeq[header.id];
 	}
 }
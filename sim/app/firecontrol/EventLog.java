@@ -0,0 +1,271 @@
+package sim.app.firecontrol;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import sim.engine.SimState;
+import sim.engine.Steppable;
+import sim.util.IntBag;
+
+/**
+ * Recorder of a run, to be replayed later without simulating it (see Replay).
+ * At the end of every step the cells that changed type and the UAVs that
+ * moved are appended to a binary log:
+ *
+ * header: magic, version, width, height, number of UAVs, keyframe interval
+ * record: kind (byte), length of the payload (int), payload
+ * - FRAME, step, changed cells (index delta from the previous one, type),
+ *   moved UAVs (id delta from the previous one, x and y delta from the last
+ *   position logged)
+ * - KEYFRAME, step, all the cells that are not normal (index delta, type),
+ *   the position of all the UAVs
+ * Numbers are variable length, signed deltas are zigzag encoded and the
+ * positions are fixed point (1/SCALE of a cell). Steps without any change
+ * are not logged. A keyframe is logged every keyframeInterval steps, a
+ * replay seeks to a step from the closest keyframe before it.
+ * In a checkpoint the log is only referenced: it is flushed, and a restored
+ * run drops the records written after the checkpoint and goes on.
+ */
+public class EventLog implements Steppable{
+	private static final long serialVersionUID = 1L;
+
+	static final int MAGIC = 0x49474E4C; //IGNL
+	static final int VERSION = 1;
+	static final byte FRAME = 1;
+	static final byte KEYFRAME = 2;
+	//fixed point of the positions, in parts of a cell
+	static final int SCALE = 1 << 10;
+
+	public int keyframeInterval = 1000;
+
+	private String fileName;
+	private transient DataOutputStream out;
+	//length of the file at the last checkpoint, -1 if closed
+	private long length = -1;
+	private long keyframeAt;
+	//cells that changed type since the last record, filled by the forest
+	private IntBag changed = new IntBag();
+	//UAVs that moved since the last record
+	private IntBag moved = new IntBag();
+	//the UAVs, by id
+	private UAV[] uavs;
+	//last position logged of every UAV, fixed point
+	private int[] lastX;
+	private int[] lastY;
+	//payload of the record being built
+	private byte[] buffer = new byte[1 << 12];
+	private int size;
+
+	/**
+	 * Start to record the simulation, once the world has been generated.
+	 */
+	public void open(Ignite ignite, String fileName) throws IOException{
+		this.fileName = fileName;
+		out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName), 1 << 16));
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(ignite.width);
+		out.writeInt(ignite.height);
+		out.writeInt(ignite.UAVs.size());
+		out.writeInt(keyframeInterval);
+		uavs = ignite.UAVs.toArray(new UAV[0]);
+		lastX = new int[uavs.length];
+		lastY = new int[uavs.length];
+		ignite.forest.setJournal(changed);
+		keyframe(ignite, 0);
+	}
+
+	@Override
+	public void step(SimState state){
+		Ignite ignite = (Ignite) state;
+		//closed after an error
+		if(out == null){
+			return;
+		}
+		long step = ignite.schedule.getSteps();
+		try{
+			if(step >= keyframeAt){
+				keyframe(ignite, step + 1);
+			} else {
+				frame(ignite, step + 1);
+			}
+		} catch(IOException e){
+			System.err.println("Exception in EventLog.step() " + e.toString());
+			close(ignite);
+		}
+	}
+
+	/**
+	 * Flush the log, before a checkpoint.
+	 */
+	public void checkpoint(){
+		length = -1;
+		if(out == null){
+			return;
+		}
+		try{
+			out.flush();
+			length = new File(fileName).length();
+		} catch(IOException e){
+			System.err.println("Exception in EventLog.checkpoint() " + e.toString());
+		}
+	}
+
+	/**
+	 * Open the log again once restored from a checkpoint.
+	 */
+	public void resume(Ignite ignite){
+		if(length < 0){
+			return;
+		}
+		try{
+			Checkpoint.truncate(fileName, length);
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName, true), 1 << 16));
+		} catch(IOException e){
+			System.err.println("Exception in EventLog.resume() " + e.toString());
+			ignite.forest.setJournal(null);
+		}
+	}
+
+	/**
+	 * Log the last changes and close the file.
+	 */
+	public void close(Ignite ignite){
+		if(out == null){
+			return;
+		}
+		try{
+			frame(ignite, ignite.schedule.getSteps());
+			out.close();
+		} catch(IOException e){
+			System.err.println("Exception in EventLog.close() " + e.toString());
+		}
+		ignite.forest.setJournal(null);
+		out = null;
+	}
+
+	//the state after the given number of steps, changes only
+	private void frame(Ignite ignite, long step) throws IOException{
+		size = 0;
+		putLong(step);
+
+		changed.sort();
+		int cells = 0;
+		for(int i=0; i<changed.numObjs; i++){
+			if(i == 0 || changed.objs[i] != changed.objs[i-1]){
+				cells++;
+			}
+		}
+		putInt(cells);
+		int previous = 0;
+		for(int i=0; i<changed.numObjs; i++){
+			int index = changed.objs[i];
+			if(i == 0 || index != changed.objs[i-1]){
+				putInt(index - previous);
+				put((byte)ignite.forest.getType(index).ordinal());
+				previous = index;
+			}
+		}
+		changed.clear();
+
+		moved.clear();
+		for(UAV uav : uavs){
+			uav.locate(step - 1);
+			if(position(uav.x) != lastX[uav.id] || position(uav.y) != lastY[uav.id]){
+				moved.add(uav.id);
+			}
+		}
+		if(cells == 0 && moved.numObjs == 0){
+			return;
+		}
+		putInt(moved.numObjs);
+		int previousId = 0;
+		for(int i=0; i<moved.numObjs; i++){
+			UAV uav = uavs[moved.objs[i]];
+			int x = position(uav.x);
+			int y = position(uav.y);
+			putInt(uav.id - previousId);
+			putSigned(x - lastX[uav.id]);
+			putSigned(y - lastY[uav.id]);
+			lastX[uav.id] = x;
+			lastY[uav.id] = y;
+			previousId = uav.id;
+		}
+		write(FRAME);
+	}
+
+	//the whole state after the given number of steps
+	private void keyframe(Ignite ignite, long step) throws IOException{
+		Forest forest = ignite.forest;
+		changed.clear();
+		size = 0;
+		putLong(step);
+
+		IntBag cells = new IntBag();
+		for(int t=0; t<forest.tiles(); t++){
+			if(forest.isMaterialized(t)){
+				int base = t << Forest.TILE_CELLS_SHIFT;
+				for(int i=base; i<base+Forest.TILE_CELLS; i++){
+					if(forest.isCell(i) && !forest.getType(i).equals(CellType.NORMAL)){
+						cells.add(i);
+					}
+				}
+			}
+		}
+		putInt(cells.numObjs);
+		int previous = 0;
+		for(int i=0; i<cells.numObjs; i++){
+			putInt(cells.objs[i] - previous);
+			put((byte)forest.getType(cells.objs[i]).ordinal());
+			previous = cells.objs[i];
+		}
+
+		for(UAV uav : uavs){
+			uav.locate(step - 1);
+			lastX[uav.id] = position(uav.x);
+			lastY[uav.id] = position(uav.y);
+			putSigned(lastX[uav.id]);
+			putSigned(lastY[uav.id]);
+			putSigned(position(uav.z));
+		}
+		write(KEYFRAME);
+		keyframeAt = step + keyframeInterval;
+	}
+
+	static int position(double coordinate){
+		return (int)Math.round(coordinate*SCALE);
+	}
+
+	private void write(byte kind) throws IOException{
+		out.writeByte(kind);
+		out.writeInt(size);
+		out.write(buffer, 0, size);
+	}
+
+	private void put(byte b){
+		if(size == buffer.length){
+			buffer = Arrays.copyOf(buffer, size*2);
+		}
+		buffer[size++] = b;
+	}
+
+	private void putLong(long value){
+		while((value & ~0x7FL) != 0){
+			put((byte)((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		put((byte)value);
+	}
+
+	private void putInt(int value){
+		putLong(value & 0xFFFFFFFFL);
+	}
+
+	private void putSigned(int value){
+		putInt((value << 1) ^ (value >> 31));
+	}
+}
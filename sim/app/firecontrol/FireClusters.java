@@ -0,0 +1,272 @@
+package sim.app.firecontrol;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+
+import sim.util.IntBag;
+
+/**
+ * Index of the clusters of fire, i.e. groups of neighbor cells that are (or
+ * were) on fire and that belong to the same task.
+ * Every cell of the forest stores the id of its cluster (0 if none), clusters
+ * are merged with a union-find structure:
+ * - a new fire joins the cluster of its neighbors, merging them if they are
+ *   more than one, in near constant time
+ * - the task of an extinguished fire is found with a single lookup
+ * When the clusters of two different tasks grow together they are not merged:
+ * the new fire joins the cluster of the biggest task, so that a cell always
+ * belongs to exactly one task.
+ * Clusters without an owner (fires not close to any task) remember their
+ * cells and are adopted by the first task they merge with.
+ */
+public class FireClusters implements java.io.Serializable{
+	private static final long serialVersionUID = 1L;
+
+	private Forest forest;
+	//cluster id of every cell of the forest, 0 means no cluster.
+	//stored by tile of the forest, tiles without clusters are null.
+	//Written in blocks of values in a checkpoint (see Checkpoint)
+	private transient int[][] cluster;
+	//union-find of the cluster ids, the size is only meaningful for the roots
+	private int[] parent;
+	private int[] size;
+	//task owning the cluster, only meaningful for the roots.
+	//every task owns exactly one root
+	private Task[] owner;
+	//cells of the clusters without owner, only meaningful for the roots
+	private IntBag[] members;
+	private int count;
+
+	/* Constructor */
+	public FireClusters(Forest forest){
+		this.forest = forest;
+		this.cluster = new int[forest.tiles()][];
+		this.parent = new int[16];
+		this.size = new int[16];
+		this.owner = new Task[16];
+		this.members = new IntBag[16];
+		this.count = 0;
+	}
+
+	/**
+	 * @return the root of the given cluster id
+	 */
+	public int find(int id){
+		while(parent[id] != id){
+			parent[id] = parent[parent[id]];
+			id = parent[id];
+		}
+		return id;
+	}
+
+	/**
+	 * @return the task the cell at the given index belongs to, or null
+	 */
+	public Task taskOf(int index){
+		int id = clusterOf(index);
+		return id == 0 ? null : owner[find(id)];
+	}
+
+	/**
+	 * Create a new cluster owned by the given task, made of the cell at the given
+	 * index. The cell is added to the task.
+	 */
+	public void create(Task task, int index){
+		int id = newCluster(task);
+		setCluster(index, id);
+		size[id] = 1;
+		if(task != null){
+			task.notifyNewFire(forest.getCell(index));
+		} else {
+			members[id] = new IntBag();
+			members[id].add(index);
+		}
+	}
+
+	/**
+	 * Used to keep the clusters up to date.
+	 * When a new fire is created, the cell joins the clusters of its neighbors
+	 * and the task owning them is updated.
+	 *
+	 * @return the task the cell has been added to, or null if none
+	 */
+	public Task notifyNewFire(int index){
+		if(clusterOf(index) != 0){
+			//already part of a cluster
+			return taskOf(index);
+		}
+		int x = forest.x(index);
+		int y = forest.y(index);
+
+		//the cell joins the cluster of the biggest task around
+		int root = 0;
+		int[] roots = new int[8];
+		int n = 0;
+		for(int i=-1; i<=1; i++){
+			for(int j=-1; j<=1; j++){
+				if((i != 0 || j != 0) && forest.isInBounds(x+i, y+j)){
+					int id = clusterOf(forest.index(x+i, y+j));
+					if(id != 0){
+						id = find(id);
+						roots[n++] = id;
+						if(root == 0 || (owner[id] != null &&
+								(owner[root] == null || owner[id].utility > owner[root].utility))){
+							root = id;
+						}
+					}
+				}
+			}
+		}
+		//and merges the clusters of the same task or without owner
+		for(int k=0; k<n; k++){
+			int other = find(roots[k]);
+			root = find(root);
+			if(owner[other] == null || owner[other] == owner[root]){
+				root = union(root, other);
+			}
+		}
+
+		if(root == 0){
+			//not close to any cluster, it will be adopted by the first task it merges with
+			create(null, index);
+			return null;
+		}
+		setCluster(index, root);
+		size[root]++;
+		if(owner[root] != null){
+			owner[root].notifyNewFire(forest.getCell(index));
+		} else {
+			members[root].add(index);
+		}
+		return owner[root];
+	}
+
+	/**
+	 * Used to keep the clusters up to date.
+	 * When a fire is extinguished the cell leaves its cluster.
+	 *
+	 * @return the task the cell was belonging to, or null if none
+	 */
+	public Task notifyExtinguishedFire(int index){
+		Task task = taskOf(index);
+		setCluster(index, 0);
+		return task;
+	}
+
+	/**
+	 * Used when a task is dropped: its clusters lose their owner and are
+	 * adopted by the next task they merge with, like any other fire.
+	 */
+	public void release(Task task){
+		for(int id=1; id<=count; id++){
+			if(parent[id] == id && owner[id] == task){
+				owner[id] = null;
+				//the fires left have all been extinguished
+				members[id] = new IntBag();
+			}
+		}
+	}
+
+	//merge two roots of the same task (or without owner), return the new root
+	private int union(int a, int b){
+		if(a == b){
+			return a;
+		}
+		//union by size
+		if(size[a] < size[b]){
+			int tmp = a;
+			a = b;
+			b = tmp;
+		}
+		parent[b] = a;
+		size[a] += size[b];
+
+		Task kept = owner[a] != null ? owner[a] : owner[b];
+		if(owner[a] == null && owner[b] == null){
+			members[a].addAll(members[b]);
+		} else if(owner[a] == null || owner[b] == null){
+			//the cluster without owner is adopted
+			adopt(kept, owner[a] == null ? a : b);
+		}
+		members[b] = null;
+		owner[b] = null;
+		owner[a] = kept;
+		return a;
+	}
+
+	//add to the task all the cells of a cluster that had no owner
+	private void adopt(Task task, int root){
+		IntBag cells = members[root];
+		for(int i=0; i<cells.numObjs; i++){
+			//extinguished cells left the cluster
+			if(clusterOf(cells.objs[i]) != 0){
+				task.notifyNewFire(forest.getCell(cells.objs[i]));
+			}
+		}
+		members[root] = null;
+	}
+
+	private int clusterOf(int index){
+		int[] tile = cluster[index >>> Forest.TILE_CELLS_SHIFT];
+		return tile == null ? 0 : tile[index & (Forest.TILE_CELLS-1)];
+	}
+
+	private void setCluster(int index, int id){
+		int t = index >>> Forest.TILE_CELLS_SHIFT;
+		if(cluster[t] == null){
+			if(id == 0){
+				return;
+			}
+			cluster[t] = new int[Forest.TILE_CELLS];
+		}
+		cluster[t][index & (Forest.TILE_CELLS-1)] = id;
+	}
+
+	private int newCluster(Task task){
+		count++;
+		if(count == parent.length){
+			parent = Arrays.copyOf(parent, count*2);
+			size = Arrays.copyOf(size, count*2);
+			owner = Arrays.copyOf(owner, count*2);
+			members = Arrays.copyOf(members, count*2);
+		}
+		parent[count] = count;
+		size[count] = 0;
+		owner[count] = task;
+		return count;
+	}
+
+	private void writeObject(ObjectOutputStream out) throws IOException{
+		out.defaultWriteObject();
+		out.writeInt(cluster.length);
+		Checkpoint.Output blocks = new Checkpoint.Output(out);
+		for(int t=0; t<cluster.length; t++){
+			blocks.writeBoolean(cluster[t] != null);
+		}
+		for(int t=0; t<cluster.length; t++){
+			if(cluster[t] != null){
+				blocks.writeInts(cluster[t], 0, Forest.TILE_CELLS);
+			}
+		}
+		blocks.close();
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException{
+		in.defaultReadObject();
+		cluster = new int[in.readInt()][];
+		Checkpoint.Input blocks = new Checkpoint.Input(in);
+		for(int t=0; t<cluster.length; t++){
+			if(blocks.readBoolean()){
+				cluster[t] = new int[Forest.TILE_CELLS];
+			}
+		}
+		for(int t=0; t<cluster.length; t++){
+			if(cluster[t] != null){
+				blocks.readInts(cluster[t], 0, Forest.TILE_CELLS);
+			}
+		}
+		blocks.close();
+	}
+}
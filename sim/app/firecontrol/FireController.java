@@ -1,8 +1,6 @@
 package sim.app.firecontrol;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
 
 import sim.engine.SimState;
@@ -10,56 +8,114 @@ import sim.engine.Steppable;
 
 public class FireController implements Steppable{
 	private static final long serialVersionUID = 1L;
-	public static int height = 60; //size of the forest
-	public static int width = 60; //size of the forest
+
+	//path of the time series of the run, without extension
+	private String fileName;
+	private TimeSeries series;
+	//true once the outcome of the run has been appended to the study
+	private boolean stored;
+
 	/**
-	 * This will check for termination conditions and writes out a file on mason root directory.
-	 * TODO: fill the file with information about your simulation according to what you would like to show
-	 * in your report
+	 * This will check for termination conditions, the time series is written in the results folder
+	 * of the configuration. The outcome of the run is stored at its end (see store).
 	 */
 	@Override
 	public void step(SimState state) {
 		Ignite ignite = (Ignite)state;
-		//create a .txt file where we can store simulation informations
-		if(Ignite.cellsOnFire == 0){
-			new File(System.getProperty("user.dir") + "/results/fires_" + ignite.fires + "_uavs_" + ignite.numUAVs + "_range_" + (int)ignite.UAVs.get(0).communicationRange + "/").mkdirs();
-			String fileName = System.getProperty("user.dir") + "/results/fires_" + ignite.fires + "_uavs_" + ignite.numUAVs + "_range_" + (int)ignite.UAVs.get(0).communicationRange + "/" + System.currentTimeMillis() + ".txt";
-			
+		//runs of a sweep are collected by the sweep itself
+		if(ignite.writeResults && ignite.writeSeries && fileName == null){
+			String dir = System.getProperty("user.dir") + "/results/fires_" + ignite.fires + "_uavs_" + ignite.numUAVs + "_range_" + (int)ignite.communicationRange + "/";
+			new File(dir).mkdirs();
+			//named after the run, as in the results store; a run repeated with
+			//the same seed and job does not overwrite the previous one
+			String name = dir + "seed_" + ignite.seed() + "_job_" + ignite.job();
+			fileName = name;
 			try {
-				FileWriter fw = new FileWriter(new File(fileName),true);
-				BufferedWriter bwr = new BufferedWriter(fw);
-				bwr.append("Total cells: " + height * width);
-				bwr.append("\nCells recovered: " + cellsRecovered(ignite, CellType.EXTINGUISHED));
-				bwr.append("\nCells burned: " + cellsRecovered(ignite, CellType.BURNED));
-				bwr.append("\nCells water: " + cellsRecovered(ignite, CellType.WATER));
-				bwr.append("\nCells not touched: " + cellsRecovered(ignite, CellType.NORMAL));
-				bwr.append("\nNumber of fires: " + ignite.fires);
-				bwr.append("\nNumber of UAVs: " + ignite.numUAVs);
-				bwr.append("\nCommunication range: " + (int)ignite.UAVs.get(0).communicationRange);
-				bwr.flush();
-				bwr.close();
+				for(int n=2; !new File(fileName + ".csv").createNewFile(); n++){
+					fileName = name + "_" + n;
+				}
+				series = new TimeSeries(fileName + ".csv");
 			} catch (IOException e) {
 				System.err.println("Exception in FireControll.step() " + e.toString());
-				e.printStackTrace();
 			}
-			
+		}
+		if(series != null){
+			try {
+				series.sample(ignite);
+			} catch (IOException e) {
+				System.err.println("Exception in FireControll.step() " + e.toString());
+				close();
+			}
+		}
+
+		if(ignite.cellsOnFire == 0){
 			//kill the current job of the simulation
 			state.kill();
+			close();
+		}
+	}
+
+	/**
+	 * Append the outcome of the run to the study (see ResultsStore), once, at
+	 * the end of the run. Runs stopped before the end of the fire are stored
+	 * as not finished.
+	 */
+	public void store(Ignite ignite){
+		if(stored || !ignite.writeResults){
+			return;
+		}
+		stored = true;
+		try {
+			ResultsStore.of(ignite.study).append(ignite);
+		} catch (IOException e) {
+			System.err.println("Exception in FireControll.store() " + e.toString());
+			e.printStackTrace();
 		}
 	}
 
 	public int cellsRecovered(Ignite ignite, CellType celltype){
-		int cells = 0;
+		return ignite.forest.count(celltype);
+	}
 
-		for(int w=0; w<width; w++){
-			for(int h=0; h<height; h++){
-				WorldCell cell = (WorldCell)ignite.forest.field[w][h];
+	/**
+	 * Flush the time series, if any, before a checkpoint.
+	 */
+	public void checkpoint(){
+		if(series != null){
+			try {
+				series.checkpoint();
+			} catch (IOException e) {
+				System.err.println("Exception in FireControll.checkpoint() " + e.toString());
+			}
+		}
+	}
 
-				if(cell.type.equals(celltype))
-					cells += 1;
+	/**
+	 * Open the time series again, once restored from a checkpoint.
+	 */
+	public void resume(){
+		if(series != null){
+			try {
+				series.resume();
+			} catch (IOException e) {
+				System.err.println("Exception in FireControll.resume() " + e.toString());
+				series = null;
+			}
+		}
+	}
+
+	/**
+	 * Close the time series, if any. Called at the end of the run.
+	 */
+	public void close(){
+		if(series != null){
+			try {
+				series.close();
+			} catch (IOException e) {
+				System.err.println("Exception in FireControll.close() " + e.toString());
 			}
+			series = null;
 		}
-		return cells;
 	}
 
 }
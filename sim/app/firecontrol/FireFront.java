@@ -0,0 +1,348 @@
+package sim.app.firecontrol;
+
+import sim.engine.ParallelSequence;
+import sim.engine.SimState;
+import sim.engine.Steppable;
+import sim.util.IntBag;
+
+/**
+ * The active frontier of the fire.
+ * Instead of stepping every cell of the forest, only the cells that can
+ * actually change are stepped:
+ * - fire, the cell is burning and propagates to its neighbors
+ * - normal, the cell is next to a fire (or about to ignite)
+ * Water, burned and extinguished cells are idle and never stepped.
+ * Cells join or leave the frontier whenever their type changes, so the cost
+ * of a step follows the perimeter of the fire and not the size of the map.
+ *
+ * Every step is done in two phases:
+ * - compute, every active cell reads the state of the previous step and writes
+ *   its next status in a separate buffer. A normal cell close to a fire decreases
+ *   its own status, instead of being decreased by its burning neighbors.
+ * - commit, the next statuses are copied into the forest and the type changes
+ *   are applied in index order.
+ * The forest is split in stripes of columns and the compute phase of every
+ * stripe runs on its own
+ * ParallelSequence worker. Random numbers are a function of the seed, the step
+ * and the cell, so the result is bit-identical for any number of threads.
+ *
+ * The frontier works on the indices of the Forest, no WorldCell is involved:
+ * tiles of the forest without fire are never visited.
+ * How much status a cell loses at every step is given by the SpreadKernel.
+ */
+public class FireFront implements Steppable{
+	private static final long serialVersionUID = 1L;
+
+	private Stripe[] stripes;
+	private int stripeWidth;
+	private ParallelSequence workers;
+	//seed of the random numbers used by the cells
+	private long seed;
+	//steps of the parent before a fork, the random numbers of a fork are
+	//those of the following steps of the parent
+	private long stepOffset;
+	//params of the simulation, read by the stripes
+	private double statusThreshold;
+	private SpreadKernel kernel;
+
+	//active cells, and cells listed in the stripes (removed cells are only
+	//unmarked in active and compacted at the next step)
+	private TileBitSet active;
+	private TileBitSet listed;
+
+	/**
+	 * Build the frontier from scratch scanning the whole forest.
+	 * Call it once the world has been generated.
+	 */
+	public void rebuild(Ignite ignite){
+		Forest forest = ignite.forest;
+		int threads = Math.max(1, Math.min(ignite.fireThreads, forest.width));
+
+		cleanup();
+		stripeWidth = (forest.width + threads - 1)/threads;
+		stripes = new Stripe[(forest.width + stripeWidth - 1)/stripeWidth];
+		for(int s=0; s<stripes.length; s++){
+			stripes[s] = new Stripe();
+		}
+		if(stripes.length > 1){
+			workers = new ParallelSequence(stripes, stripes.length);
+		}
+		seed = ignite.random.nextLong();
+		statusThreshold = ignite.statusThreshold;
+		kernel = ignite.kernel;
+		kernel.prepare(ignite);
+		active = new TileBitSet(forest);
+		listed = new TileBitSet(forest);
+
+		//fires can only be in the tiles that have been written
+		for(int t=0; t<forest.tiles(); t++){
+			if(forest.isMaterialized(t)){
+				int base = t << Forest.TILE_CELLS_SHIFT;
+				for(int i=base; i<base+Forest.TILE_CELLS; i++){
+					if(forest.getType(i).equals(CellType.FIRE)){
+						notifyTypeChanged(ignite, i);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * A copy of the frontier for a fork of the simulation (see Rollout), with
+	 * the same random numbers. The copy runs on a single thread, all the
+	 * cells are in a single stripe. The schedule of the fork starts from 0,
+	 * its first step draws the random numbers of the given step.
+	 */
+	public FireFront fork(long step){
+		FireFront front = new FireFront();
+		front.stripeWidth = Integer.MAX_VALUE;
+		front.stripes = new Stripe[]{ front.new Stripe() };
+		for(int s=0; s<stripes.length; s++){
+			front.stripes[0].cells.addAll(stripes[s].cells);
+		}
+		front.seed = seed;
+		front.stepOffset = stepOffset + step;
+		front.statusThreshold = statusThreshold;
+		front.kernel = kernel;
+		front.active = new TileBitSet(active);
+		front.listed = new TileBitSet(listed);
+		return front;
+	}
+
+	/**
+	 * Prepare the kernel again, once restored from a checkpoint.
+	 */
+	public void resume(Ignite ignite){
+		kernel.prepare(ignite);
+	}
+
+	/**
+	 * Stop the threads of the workers, if any.
+	 */
+	public void cleanup(){
+		if(workers != null){
+			workers.cleanup();
+			workers = null;
+		}
+	}
+
+	/**
+	 * Used to keep the frontier up to date.
+	 * Every time a cell changes its type, this function has to be called to let
+	 * the frontier add or remove it (and its neighbors).
+	 */
+	public void notifyTypeChanged(Ignite ignite, int index){
+		Forest forest = ignite.forest;
+		int x = forest.x(index);
+		int y = forest.y(index);
+		boolean fire = forest.getType(index).equals(CellType.FIRE);
+
+		update(forest, index);
+		for(int i=-1; i<=1; i++){
+			for(int j=-1; j<=1; j++){
+				if((i != 0 || j != 0) && forest.isInBounds(x+i, y+j)){
+					int neighbor = forest.index(x+i, y+j);
+					if(forest.getType(neighbor).equals(CellType.NORMAL)){
+						//normal neighbors can now take fire or may not be close to a fire anymore
+						if(fire){
+							add(forest, neighbor);
+						} else {
+							update(forest, neighbor);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the number of cells stepped at every tick
+	 */
+	public int size(){
+		return active.cardinality();
+	}
+
+	public boolean isActive(int index){
+		return active.get(index);
+	}
+
+	@Override
+	public void step(SimState state){
+		Ignite ignite = (Ignite) state;
+		Forest forest = ignite.forest;
+
+		//compute
+		for(int s=0; s<stripes.length; s++){
+			stripes[s].compact();
+		}
+		if(workers != null){
+			workers.step(state);
+		} else {
+			stripes[0].step(state);
+		}
+
+		//commit
+		IntBag changed = new IntBag();
+		for(int s=0; s<stripes.length; s++){
+			Stripe stripe = stripes[s];
+			for(int k=0; k<stripe.cells.numObjs; k++){
+				forest.setStatus(stripe.cells.objs[k], stripe.next[k]);
+			}
+			changed.addAll(stripe.changed);
+		}
+		changed.sort();
+		for(int k=0; k<changed.numObjs; k++){
+			int index = changed.objs[k];
+			if(forest.getType(index).equals(CellType.FIRE)){
+				forest.setType(index, CellType.BURNED);
+				ignite.cellsOnFire--;
+				ignite.cellsBurned++;
+				notifyTypeChanged(ignite, index);
+				ignite.notifyFireOut(index);
+			} else {
+				ignite(ignite, index);
+				//notify the task of the neighbors to let it compute the update,
+				//forks do not keep track of the tasks
+				if(ignite.clusters != null){
+					ignite.clusters.notifyNewFire(index);
+				}
+			}
+		}
+	}
+
+	//set a normal cell on fire
+	void ignite(Ignite ignite, int index){
+		ignite.forest.setType(index, CellType.FIRE);
+		ignite.forest.setStatus(index, 1);
+		ignite.cellsOnFire++;
+		notifyTypeChanged(ignite, index);
+	}
+
+	/**
+	 * Uniform random number in [0,1) for the given cell at the given step.
+	 * It does not depend on the order in which the cells are stepped.
+	 * @see: http://xorshift.di.unimi.it/splitmix64.c
+	 */
+	static double random(long seed, long step, int index){
+		long z = seed + step*0x9E3779B97F4A7C15L + (index+1)*0xD1B54A32D192ED03L;
+		z = (z ^ (z >>> 30))*0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27))*0x94D049BB133111EBL;
+		z = z ^ (z >>> 31);
+		return (z >>> 11)*0x1.0p-53;
+	}
+
+	private void add(Forest forest, int index){
+		active.set(index);
+		if(!listed.get(index)){
+			listed.set(index);
+			stripes[forest.x(index)/stripeWidth].cells.add(index);
+		}
+	}
+
+	//add or remove a single cell according to its type
+	private void update(Forest forest, int index){
+		CellType type = forest.getType(index);
+		boolean keep = type.equals(CellType.FIRE) ||
+				(type.equals(CellType.NORMAL) &&
+						(forest.getStatus(index) < statusThreshold || isCloseToFire(forest, index)));
+		if(keep){
+			add(forest, index);
+		} else {
+			active.clear(index);
+		}
+	}
+
+	private static boolean isCloseToFire(Forest forest, int index){
+		int x = forest.x(index);
+		int y = forest.y(index);
+		for(int i=-1; i<=1; i++){
+			for(int j=-1; j<=1; j++){
+				if(forest.isInBounds(x+i, y+j) && forest.getType(x+i, y+j) == CellType.FIRE){
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	//bit mask of the burning neighbors of a cell, numbered as in SpreadKernel
+	private static int burningNeighbors(Forest forest, int x, int y){
+		int mask = 0;
+		for(int d=0; d<8; d++){
+			int nx = x + SpreadKernel.DX[d];
+			int ny = y + SpreadKernel.DY[d];
+			if(forest.isInBounds(nx, ny) && forest.getType(nx, ny) == CellType.FIRE){
+				mask |= 1 << d;
+			}
+		}
+		return mask;
+	}
+
+	/**
+	 * The active cells of a group of contiguous columns of the forest.
+	 * Stepping a stripe runs the compute phase of its cells: it only reads
+	 * the forest and writes into its own buffers.
+	 */
+	class Stripe implements Steppable{
+		private static final long serialVersionUID = 1L;
+
+		//active cells, in insertion order
+		IntBag cells = new IntBag();
+		//next status of the cells, aligned with cells
+		float[] next = new float[0];
+		//cells that change their type at this step
+		IntBag changed = new IntBag();
+
+		//drop the cells that left the frontier since the last step
+		void compact(){
+			int kept = 0;
+			for(int i=0; i<cells.numObjs; i++){
+				int index = cells.objs[i];
+				if(active.get(index)){
+					cells.objs[kept++] = index;
+				} else {
+					listed.clear(index);
+				}
+			}
+			cells.numObjs = kept;
+		}
+
+		@Override
+		public void step(SimState state){
+			Ignite ignite = (Ignite) state;
+			Forest forest = ignite.forest;
+			long step = stepOffset + ignite.schedule.getSteps();
+
+			if(next.length < cells.numObjs){
+				next = new float[cells.objs.length];
+			}
+			changed.clear();
+
+			for(int k=0; k<cells.numObjs; k++){
+				int index = cells.objs[k];
+				CellType type = forest.getType(index);
+				float status = (float)forest.getStatus(index);
+
+				if(type == CellType.FIRE){
+					//update the status
+					status -= kernel.burn(status, random(seed, step, index));
+					if(status<statusThreshold){
+						changed.add(index);
+					}
+				} else if(type == CellType.NORMAL){
+					//the fire of the neighbors enhances the status only once per step
+					int x = forest.x(index);
+					int y = forest.y(index);
+					int burning = burningNeighbors(forest, x, y);
+					if(burning != 0){
+						status -= kernel.spread(forest, x, y, burning, random(seed, step, index));
+					}
+					if(status<statusThreshold){
+						changed.add(index);
+					}
+				}
+				next[k] = status;
+			}
+		}
+	}
+}
@@ -0,0 +1,325 @@
+package sim.app.firecontrol;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+
+import sim.field.grid.AbstractGrid2D;
+import sim.field.grid.ObjectGrid2D;
+import sim.util.IntBag;
+
+/**
+ * Primitive representation of the forest.
+ * The state of the cells is stored in primitive arrays, one per property,
+ * instead of one WorldCell object per cell:
+ * - type, the ordinal of the CellType of the cell
+ * - status, when it reaches 0 a normal cell takes fire and a fire cell burns
+ *
+ * The forest is split in square tiles of TILE x TILE cells. A tile is only
+ * allocated the first time one of its cells is written with something
+ * different from a normal cell in good health: until then it is the default
+ * tile, and costs nothing. On a large map only the tiles touched by water or
+ * fire take memory.
+ *
+ * The index of a cell is the index of its tile followed by its position in
+ * the tile, so that neighbor cells are close in memory and the tile of an
+ * index is a shift away. Indices of the padding of the tiles on the border
+ * do not correspond to any cell.
+ *
+ * The number of cells of every type is kept up to date at every change of
+ * type, there is no need to scan the forest to count them. The types only
+ * change in the sequential phases of the simulation (the commits of the
+ * FireFront and of the Swarm), the counters need no synchronization.
+ *
+ * A forest can be forked (see fork): the fork shares the tiles with the
+ * original and copies a shared tile the first time it writes it. The
+ * original must not be written while the fork is in use.
+ * A fork costs the tiles it changes, not the size of the map.
+ *
+ * In a checkpoint the tiles are written in blocks of values (see Checkpoint),
+ * all the types first and then all the statuses.
+ *
+ * WorldCell is only a lightweight view over this storage.
+ */
+public class Forest extends AbstractGrid2D{
+	private static final long serialVersionUID = 1;
+
+	static final CellType[] TYPES = CellType.values();
+
+	//side of a tile, and number of cells of a tile
+	public static final int TILE_SHIFT = 6;
+	public static final int TILE = 1 << TILE_SHIFT;
+	public static final int TILE_CELLS_SHIFT = 2*TILE_SHIFT;
+	public static final int TILE_CELLS = 1 << TILE_CELLS_SHIFT;
+
+	static final byte NORMAL = (byte)CellType.NORMAL.ordinal();
+
+	//number of tiles along x and y
+	public int tilesX;
+	public int tilesY;
+	//the tiles, null for the default tile
+	private transient byte[][] type;
+	private transient float[][] status;
+	//true if the tile can be written in place. A fork does not own the tiles
+	//it shares with its parent, the parent keeps owning them
+	private transient boolean[] owned;
+	private int materialized;
+	//number of cells of every type, by ordinal
+	private int[] counts = new int[TYPES.length];
+	//indices of the cells whose type changed, null if they are not recorded
+	private IntBag journal;
+
+	/* Constructor, all the cells are normal and in good health */
+	public Forest(int width, int height){
+		this.width = width;
+		this.height = height;
+		this.tilesX = (width + TILE - 1) >> TILE_SHIFT;
+		this.tilesY = (height + TILE - 1) >> TILE_SHIFT;
+		if((long)tilesX*tilesY*TILE_CELLS > Integer.MAX_VALUE){
+			throw new IllegalArgumentException("Forest too large: " + width + "x" + height);
+		}
+		this.type = new byte[tilesX*tilesY][];
+		this.status = new float[tilesX*tilesY][];
+		this.owned = new boolean[tilesX*tilesY];
+		this.materialized = 0;
+		this.counts[NORMAL] = width*height;
+	}
+
+	//a fork of the given forest, sharing all its tiles
+	private Forest(Forest forest){
+		this.width = forest.width;
+		this.height = forest.height;
+		this.tilesX = forest.tilesX;
+		this.tilesY = forest.tilesY;
+		this.type = forest.type.clone();
+		this.status = forest.status.clone();
+		this.owned = new boolean[type.length];
+		this.materialized = forest.materialized;
+		this.counts = forest.counts.clone();
+	}
+
+	/**
+	 * Returns a copy of the forest that shares the tiles with this one, until
+	 * the copy writes them. The journal is not shared.
+	 * This forest must not be written while the copy is in use (see Rollout).
+	 */
+	public Forest fork(){
+		return new Forest(this);
+	}
+
+	/** Sets all the cells to the given type, with status 1 */
+	public final void setTo(CellType cellType){
+		Arrays.fill(type, null);
+		Arrays.fill(status, null);
+		Arrays.fill(owned, false);
+		materialized = 0;
+		Arrays.fill(counts, 0);
+		counts[cellType.ordinal()] = width*height;
+		if(!cellType.equals(CellType.NORMAL)){
+			for(int t=0; t<type.length; t++){
+				materialize(t);
+				Arrays.fill(type[t], (byte)cellType.ordinal());
+			}
+		}
+	}
+
+	/** Returns the index of location (x,y) */
+	public final int index(final int x, final int y){
+		return (((x >> TILE_SHIFT)*tilesY + (y >> TILE_SHIFT)) << TILE_CELLS_SHIFT)
+				| ((x & (TILE-1)) << TILE_SHIFT) | (y & (TILE-1));
+	}
+
+	/** Returns the x of the cell at the given index */
+	public final int x(final int index){
+		return (((index >>> TILE_CELLS_SHIFT)/tilesY) << TILE_SHIFT) | ((index >>> TILE_SHIFT) & (TILE-1));
+	}
+
+	/** Returns the y of the cell at the given index */
+	public final int y(final int index){
+		return (((index >>> TILE_CELLS_SHIFT)%tilesY) << TILE_SHIFT) | (index & (TILE-1));
+	}
+
+	/** Returns the number of indices, including the padding of the tiles */
+	public final int size(){
+		return type.length << TILE_CELLS_SHIFT;
+	}
+
+	/** Returns the number of tiles */
+	public final int tiles(){
+		return type.length;
+	}
+
+	/** Returns true if the tile has been written, i.e. it is not the default one */
+	public final boolean isMaterialized(final int tile){
+		return type[tile] != null;
+	}
+
+	/** Returns the number of tiles that have been written */
+	public final int materializedTiles(){
+		return materialized;
+	}
+
+	public final boolean isInBounds(final int x, final int y){
+		return x >= 0 && y >= 0 && x < width && y < height;
+	}
+
+	/** Returns true if the index corresponds to a cell, and not to the padding */
+	public final boolean isCell(final int index){
+		return x(index) < width && y(index) < height;
+	}
+
+	public final CellType getType(final int index){
+		byte[] tile = type[index >>> TILE_CELLS_SHIFT];
+		return tile == null ? CellType.NORMAL : TYPES[tile[index & (TILE_CELLS-1)]];
+	}
+
+	public final CellType getType(final int x, final int y){
+		return getType(index(x, y));
+	}
+
+	public final void setType(final int index, final CellType cellType){
+		int t = index >>> TILE_CELLS_SHIFT;
+		if(type[t] == null){
+			if(cellType.equals(CellType.NORMAL)){
+				return;
+			}
+			materialize(t);
+		} else if(!owned[t]){
+			own(t);
+		}
+		int i = index & (TILE_CELLS-1);
+		byte previous = type[t][i];
+		if(previous != cellType.ordinal()){
+			counts[previous]--;
+			counts[cellType.ordinal()]++;
+			type[t][i] = (byte)cellType.ordinal();
+			if(journal != null){
+				journal.add(index);
+			}
+		}
+	}
+
+	public final void setType(final int x, final int y, final CellType cellType){
+		setType(index(x, y), cellType);
+	}
+
+	public final double getStatus(final int index){
+		float[] tile = status[index >>> TILE_CELLS_SHIFT];
+		return tile == null ? 1 : tile[index & (TILE_CELLS-1)];
+	}
+
+	public final void setStatus(final int index, final double value){
+		int t = index >>> TILE_CELLS_SHIFT;
+		if(status[t] == null){
+			if(value == 1){
+				return;
+			}
+			materialize(t);
+		} else if(!owned[t]){
+			own(t);
+		}
+		status[t][index & (TILE_CELLS-1)] = (float)value;
+	}
+
+	//replace the default tile with a tile of its own
+	private void materialize(final int t){
+		byte[] types = new byte[TILE_CELLS];
+		float[] statuses = new float[TILE_CELLS];
+		Arrays.fill(types, NORMAL);
+		Arrays.fill(statuses, 1);
+		type[t] = types;
+		status[t] = statuses;
+		owned[t] = true;
+		materialized++;
+	}
+
+	//replace a tile shared with the parent with a copy of its own
+	private void own(final int t){
+		type[t] = type[t].clone();
+		status[t] = status[t].clone();
+		owned[t] = true;
+	}
+
+	private void writeObject(ObjectOutputStream out) throws IOException{
+		out.defaultWriteObject();
+		Checkpoint.Output blocks = new Checkpoint.Output(out);
+		for(int t=0; t<type.length; t++){
+			blocks.writeBoolean(type[t] != null);
+		}
+		for(int t=0; t<type.length; t++){
+			if(type[t] != null){
+				blocks.writeBytes(type[t], 0, TILE_CELLS);
+			}
+		}
+		for(int t=0; t<type.length; t++){
+			if(type[t] != null){
+				blocks.writeFloats(status[t], 0, TILE_CELLS);
+			}
+		}
+		blocks.close();
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException{
+		in.defaultReadObject();
+		type = new byte[tilesX*tilesY][];
+		status = new float[tilesX*tilesY][];
+		owned = new boolean[tilesX*tilesY];
+		Checkpoint.Input blocks = new Checkpoint.Input(in);
+		for(int t=0; t<type.length; t++){
+			if(blocks.readBoolean()){
+				type[t] = new byte[TILE_CELLS];
+				status[t] = new float[TILE_CELLS];
+				owned[t] = true;
+			}
+		}
+		for(int t=0; t<type.length; t++){
+			if(type[t] != null){
+				blocks.readBytes(type[t], 0, TILE_CELLS);
+			}
+		}
+		for(int t=0; t<type.length; t++){
+			if(type[t] != null){
+				blocks.readFloats(status[t], 0, TILE_CELLS);
+			}
+		}
+		blocks.close();
+	}
+
+	/** Records the indices of the cells whose type changes in the given bag, null to stop */
+	public void setJournal(IntBag journal){
+		this.journal = journal;
+	}
+
+	/** Returns a view of the cell at location (x,y) */
+	public WorldCell getCell(final int x, final int y){
+		return new WorldCell(this, x, y);
+	}
+
+	/** Returns a view of the cell stored at the given index */
+	public WorldCell getCell(final int index){
+		return new WorldCell(this, x(index), y(index));
+	}
+
+	/**
+	 * Returns the number of cells of the given type.
+	 */
+	public int count(CellType cellType){
+		return counts[cellType.ordinal()];
+	}
+
+	/**
+	 * Builds a grid of views over this forest, used to display and inspect the cells.
+	 * The views read the state of the forest, there is no need to rebuild the
+	 * grid when the cells change.
+	 */
+	public ObjectGrid2D toObjectGrid(){
+		ObjectGrid2D grid = new ObjectGrid2D(width, height);
+		for(int w=0; w<width; w++){
+			for(int h=0; h<height; h++){
+				grid.field[w][h] = getCell(w, h);
+			}
+		}
+		return grid;
+	}
+}
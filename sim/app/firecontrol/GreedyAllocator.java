@@ -0,0 +1,85 @@
+package sim.app.firecontrol;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The original allocation of the managers.
+ * Every task is cleared on its own, in the order of the tasks: the manager
+ * repeatedly takes the best offer among the free bidders until the task has
+ * as many UAVs as its share of the fire. Each pick rescans all the offers.
+ */
+public class GreedyAllocator extends TaskAllocator{
+	private static final long serialVersionUID = 1L;
+
+	//offers of every task, the last offer of a UAV replaces the previous one
+	private Map<Task, Map<UAV, Double>> proposals = new HashMap<>();
+
+	@Override
+	public void reset(){
+		super.reset();
+		proposals.clear();
+	}
+
+	@Override
+	protected void allocate(Ignite ignite, List<Bid> bids){
+		for(Bid bid : bids){
+			Map<UAV, Double> offers = proposals.get(bid.task);
+			if(offers == null){
+				offers = new LinkedHashMap<>();
+				proposals.put(bid.task, offers);
+			}
+			offers.put(bid.bidder, bid.offer);
+		}
+		if(proposals.isEmpty()){
+			return;
+		}
+
+		int totalFire = totalFire(ignite);
+		for(Task task : new ArrayList<>(ignite.tasks)){
+			Map<UAV, Double> offers = proposals.get(task);
+			if(task.manager == null || offers == null){
+				continue;
+			}
+			if(task.isDone()){
+				drop(ignite, task);
+				proposals.remove(task);
+				continue;
+			}
+
+			// Calculate UAV needed
+			int uavNeeded = uavNeeded(ignite, task, totalFire);
+			boolean cleared = true;
+			int size = offers.size();
+			for(int i=0; i<size; i++){
+				// Exit if more UAV than needed
+				if(task.UAVassigned >= uavNeeded)
+					break;
+
+				UAV bestUAV = null;
+				double bestOffer = 0;
+				for(Map.Entry<UAV, Double> UAVoffer : offers.entrySet()){
+					if(UAVoffer.getValue() > bestOffer && UAVoffer.getKey().myTask == null){
+						bestOffer = UAVoffer.getValue();
+						bestUAV = UAVoffer.getKey();
+					}
+				}
+				// no free bidder, the offers are kept for the next step
+				if(bestUAV == null){
+					cleared = false;
+					break;
+				}
+				offers.remove(bestUAV);
+				assign(ignite, bestUAV, task);
+			}
+			if(cleared){
+				proposals.remove(task);
+			}
+
+			Trace.log(ignite, Trace.Event.TEAM, task.manager.id, task.UAVassigned, uavNeeded);
+		}
+	}
+}
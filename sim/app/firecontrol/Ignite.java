@@ -15,15 +15,24 @@
 
 package sim.app.firecontrol;
 
-import java.util.ArrayList;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
 
+import sim.engine.MakesSimState;
+import sim.engine.ParallelSequence;
 import sim.engine.SimState;
 import sim.field.continuous.Continuous3D;
-import sim.field.grid.ObjectGrid2D;
 import sim.util.Bag;
 import sim.util.Double3D;
 import sim.util.Int2D;
+import sim.util.IntBag;
 
 public class Ignite extends SimState{
 	private static final long serialVersionUID = 1;
@@ -37,24 +46,81 @@ public class Ignite extends SimState{
 	 * - burned, there is nothing left to save
 	 * - water, the cell is part of a lake or a river
 	 */
-	public ObjectGrid2D forest;
+	public Forest forest;
+	/* Cells of the forest that are stepped, i.e. fires and their neighbors */
+	public FireFront front;
+	public Swarm swarm;
+	public FireController fireController;
+	/* file the run is recorded to (see EventLog), null to not record it */
+	public String record;
+	public EventLog recorder;
+	/* run to show instead of simulating a new one (see Replay) */
+	public Replay replay;
+	/* Clusters of fire and the tasks owning them */
+	public FireClusters clusters;
 
 	/* simulation params */
 	public int numUAVs = 20; //number of mavs involved in the simulation
 	//public Bag UAVs; // all the agents in the simulation. Bag size is numMavs
 	public LinkedList<UAV> UAVs;
-
-	public static int height = 60; //size of the forest
-	public static int width = 60; //size of the forest
-	public static int depth = 50; //max altitude
-
-	public static int cellsOnFire = 0;
-	public static int cellsBurned = 0;
-	public static int cellsOnWater = 0;
+	public int fireThreads = 1; //number of threads used to propagate the fire
+	public int uavThreads = 1; //number of threads used to step the UAVs
+	public int rolloutThreads = 1; //number of threads used to run the forks (see Rollout)
+	public int fires = 3; //number of fires at the beginning
+
+	public int height = 60; //size of the forest
+	public int width = 60; //size of the forest
+	public int depth = 50; //max altitude
+
+	/* UAVs params, the same for all the UAVs of this simulation */
+	public double communicationRange = 30; //communication range for the UAVs
+	public double linearvelocity = 0.02;
+	public int stepToExtinguish = 10; //steps needed to extinguish a fire in a location
+	//UAVs are stepped only at the events of their motion instead of at every step
+	public boolean eventDriven = true;
+	//steps simulated ahead on forks to size the team of a task, 0 to only use
+	//the share of the fire (see TaskAllocator)
+	public int rolloutHorizon = 0;
+
+	/* cells params */
+	public double statusThreshold = 10E-3;
+	public double normalStatusMultiplier = 10E-3;
+	public double fireStatusMultiplier = 5*10E-4;
+	public double selfIgniteThreshold = 1-10E-5;
+	public int selfIgniteMax = 0; //max number of cells taking fire by themselves
+
+	/* how the fire spreads, and the layers of the terrain it may depend on
+	 * (null layers are ignored, a DoubleGrid2D can be given with Raster.of) */
+	public SpreadKernel kernel = new IsotropicKernel();
+	public Raster windX; //wind, toward x
+	public Raster windY; //wind, toward y
+	public Raster elevation;
+	public Raster fuel; //multiplier of the spread, 0 for no fuel
+	/* map of real terrain, null to generate a random world at every run */
+	public Scenario scenario;
+	/* lakes, rivers, fuel and fires of the random worlds */
+	public WorldGenerator generator = new WorldGenerator();
+
+	/* write the outcome of the run in the results folder */
+	public boolean writeResults = true;
+	/* study the outcome of the run is appended to (see ResultsStore) */
+	public String study = System.getProperty("user.dir") + "/results/runs";
+	/* write the state of the run at every step next to the outcome (see TimeSeries) */
+	public boolean writeSeries = true;
+
+	/* state of the run, reset at every start */
+	public int cellsOnFire = 0;
+	public int cellsBurned = 0;
+	public int cellsOnWater = 0;
 
 	public LinkedList<Task> tasks;
+	/* Packets exchanged by the UAVs */
+	public CommsBus bus;
+	/* Assignment of the UAVs to the tasks */
+	public TaskAllocator allocator = new AuctionAllocator();
+	/* UAVs extinguishing a cell, by cell, waiting for the end of the fire */
+	public HashMap<Integer, Bag> extinguishing;
 	//public LinkedList<DataPacket> data;
-	int fires = 3;
 
 	/**
 	 * Constructor
@@ -68,7 +134,7 @@ public class Ignite extends SimState{
 	 * @param Double3D pos, the position to check
 	 * @return true, if the UAV is in bound
 	 */
-	public static boolean isInBounds(Double3D pos){
+	public boolean isInBounds(Double3D pos){
 		return pos.x >= 0
 				&& pos.y >= 0
 				&& pos.z >= 1
@@ -85,147 +151,65 @@ public class Ignite extends SimState{
 		//reset variables for job>1
 		cellsOnFire = 0;
 		cellsBurned = 0;
-		WorldCell.selfIgniteMax = 0;
+		cellsOnWater = 0;
 
-		air = new Continuous3D(1, width, height, depth);
-		forest = new ObjectGrid2D(width, height);
+		//nothing is simulated in a replay
+		if(replay != null){
+			replay.start(this);
+			return;
+		}
 
-		//generate the world
-		//fill the world with trees
-		for(int w=0; w<width; w++){
-			for(int h=0; h<height; h++){
-				WorldCell cell = new WorldCell(w,h, CellType.NORMAL);
-				forest.field[w][h] = cell;
+		//the size of the forest and its layers come from the scenario, if any
+		if(scenario != null){
+			try{
+				scenario.load(this);
+			} catch(IOException e){
+				throw new RuntimeException("Cannot load the scenario", e);
 			}
 		}
 
-		//generate lakes
-		int lakes = 2;
-		for(int l=0; l<lakes; l++){
-			Int2D lakeCenter;
-			Int2D nextLocation;
-			WorldCell cell;
-
-			//try to find a center for the lake
-			int maxTries = width*height;
-			do{
-				lakeCenter = new Int2D(random.nextInt(width), random.nextInt(height));
-				cell = ((WorldCell)forest.field[lakeCenter.x][lakeCenter.y]);
-				maxTries--;
-			}while(cell.type.equals(CellType.WATER) && maxTries>=0);
-
-			//break if not able to find a center after some time
-			if(maxTries < 0){
-				break;
-			}
+		air = new Continuous3D(1, width, height, depth);
+		//generate the world
+		//fill the world with trees
+		forest = new Forest(width, height);
+		clusters = new FireClusters(forest);
 
-			//place the center of the lake
-			cell = new WorldCell(lakeCenter.x, lakeCenter.y, CellType.WATER);
-			forest.field[lakeCenter.x][lakeCenter.y] = cell;
-
-			int radius = 1;
-			//start creating the lake
-			while(radius<=random.nextInt(width)+2 && radius<=random.nextInt(height)+2){
-				for(int i=-radius; i<=radius; i++){
-					for(int j=-radius; j<=radius; j++){
-						nextLocation = new Int2D(lakeCenter.x+i, lakeCenter.y+j);
-						//place if not already present and if in bounds
-						if(nextLocation.x>=0 && nextLocation.y>=0 &&
-								nextLocation.x<width && nextLocation.y<height){
-							double p = gaussianPDF(Math.sqrt(i*i+j*j),(random.nextInt(3)-1)*random.nextDouble(), 3);
-
-							// if p is too low then there is no water
-							if(p > 0.25){
-								//place water
-								cell = new WorldCell(nextLocation.x, nextLocation.y, CellType.WATER);
-								forest.field[nextLocation.x][nextLocation.y] = cell;
-							}
-						}
-					}
-				}
-				radius++;
+		//generate lakes and rivers, unless given by the scenario
+		generator.reset(this);
+		if(scenario == null || !scenario.placeWater(this)){
+			generator.generateWater(this);
+		}
+		//fuel patches, unless given by the scenario
+		if(generator.fuel && (scenario == null || scenario.fuel == null)){
+			fuel = generator.fuel(forest);
+			if(kernel instanceof IsotropicKernel){
+				kernel = new WindSlopeKernel();
 			}
 		}
 
 		//set the world on fire
-		//start with 3 fires and store their centroid in the tasks list
+		//start with some clusters of fires and store their centroid in the tasks list
 		tasks = new LinkedList<>();
 		//data = new LinkedList<>();
 		UAVs = new LinkedList<>();
+		extinguishing = new HashMap<>();
 
-		//generate fires
-		for(int l=0; l<fires; l++){
-			Int2D fireCenter;
-			Int2D nextLocation;
-			WorldCell cell;
-
-			//try to find a center for the lake
-			int maxTries = width*height;
-			do{
-				fireCenter = new Int2D(random.nextInt(width), random.nextInt(height));
-				cell = ((WorldCell)forest.field[fireCenter.x][fireCenter.y]);
-				maxTries--;
-			}while((cell.type.equals(CellType.FIRE) || cell.type.equals(CellType.WATER)) && maxTries>=0);
-
-			//break if not able to find a center after some time
-			if(maxTries < 0){
-				break;
-			}
-
-			//place the center of the fire
-			cell = new WorldCell(fireCenter.x, fireCenter.y, CellType.FIRE);
-			forest.field[fireCenter.x][fireCenter.y] = cell;
-			cellsOnFire++;
-			//generate the task for global knowledge
-			Task t = new Task(l, new Int2D(fireCenter.x, fireCenter.y), 0);
-			t.addCell(cell);
-			tasks.add(t);
-
-			int radius = 1;
-
-			//start creating the fire
-			LinkedList<Int2D> extractedLocation = new LinkedList<>();
-			extractedLocation.add(fireCenter);
-			while(radius<=random.nextInt(width)+2 && radius<=random.nextInt(height)+2){
-				for(int i=-radius; i<=radius; i++){
-					for(int j=-radius; j<=radius; j++){
-						nextLocation = new Int2D(fireCenter.x+i, fireCenter.y+j);
-						//place if not already present and if in bounds
-						if(nextLocation.x>=0 &&
-								nextLocation.y>=0 &&
-								nextLocation.x<width &&
-								nextLocation.y<height &&
-								!extractedLocation.contains(nextLocation)){
-							double p = gaussianPDF(Math.sqrt(i*i+j*j),(random.nextInt(3)-1)*random.nextDouble(), 3);
-
-							// if p is too low then there is no fire
-							if(p > 0.85){
-								//place fire
-								cell = new WorldCell(nextLocation.x, nextLocation.y, CellType.FIRE);
-								forest.field[nextLocation.x][nextLocation.y] = cell;
-								cellsOnFire++;
-								//update the task
-								t.notifyNewFire(cell);
-								//avoid updating more than once
-								extractedLocation.add(nextLocation);
-							}
-						}
-					}
-				}
-				radius++;
-			}
+		//generate fires, unless given by the scenario
+		if(scenario == null || !scenario.placeFires(this)){
+			generator.generateFires(this);
 		}
 
-		//schedule all the cells
-		for(int w=0; w<width; w++){
-			for(int h=0; h<height; h++){
-				schedule.scheduleRepeating((WorldCell)forest.field[w][h], 2, 1);
-				//schedule.scheduleRepeating((WorldCell)forest.field[w][h], numUAVs + 1, 1);
-			}
+		//schedule only the cells close to the fires
+		front = new FireFront();
+		front.rebuild(this);
+		schedule.scheduleRepeating(front, 2, 1);
+		//cells taking fire by themselves, right after the fire
+		if(selfIgniteMax > 0){
+			new SelfIgnition(this).start(this);
 		}
 
 		//random placement of agents
-		ArrayList<Double3D> extracted = new ArrayList<Double3D>();
+		HashSet<Double3D> extracted = new HashSet<Double3D>();
 		Double3D location;
 		for(int i = 0 ; i < numUAVs; i++){
 			do{
@@ -234,27 +218,242 @@ public class Ignite extends SimState{
 			//store extracted location to avoid duplicates
 			extracted.add(location);
 			//generate a new UAV
-			UAV uav = new UAV(i, location);
+			UAV uav = new UAV(i, location, this);
 			UAVs.add(uav);
 			//add the UAV to air at the location extracted
 			air.setObjectLocation(uav, location);
-			//schedule the agent
-			//schedule.scheduleRepeating(uav, i + 1, 1);
-			schedule.scheduleRepeating(uav, 1, 1);
 		}
 
+		//schedule the agents, all together
+		swarm = new Swarm();
+		swarm.rebuild(this);
+		schedule.scheduleRepeating(swarm, 1, 1);
+
+		//schedule the communication, collected before the UAVs are stepped
+		bus = new CommsBus();
+		bus.rebuild(this);
+		schedule.scheduleRepeating(bus, 0, 1);
+
+		//schedule the allocation of the offers sent during the previous step
+		allocator.reset();
+		schedule.scheduleRepeating(allocator, 0, 1);
+
 		//schedule the fireContrller, used to check the end of the simulation
-		FireController fireController = new FireController();
+		fireController = new FireController();
 		//schedule.scheduleRepeating(fireController,numUAVs + 2,1);
-		schedule.scheduleRepeating(fireController,3,1);
+		schedule.scheduleRepeating(fireController,4,1);
 
 		//assign the manager for every task
 		for(Task task : this.tasks){
 			task.selectManager(this);
-			System.err.println("Manager task " + task.id +": UAV " + task.manager.id);
+			//there may be more tasks than UAVs
+			if(task.manager != null){
+				Trace.log(this, Trace.Event.MANAGER, task.id, task.manager.id);
+			}
+		}
+
+		//record the run, after all the other steppables
+		if(record != null){
+			recorder = new EventLog();
+			try{
+				recorder.open(this, record);
+			} catch(IOException e){
+				throw new RuntimeException("Cannot record the run to " + record, e);
+			}
+			schedule.scheduleRepeating(recorder, 5, 1);
+		}
+	}
+
+
+	/**
+	 * Wake up the UAV when the fire of the cell goes out, if it happens
+	 * before the UAV is done extinguishing it.
+	 */
+	public void waitFireOut(int index, UAV uav){
+		Bag waiting = extinguishing.get(index);
+		if(waiting == null){
+			waiting = new Bag();
+			extinguishing.put(index, waiting);
 		}
+		waiting.add(uav);
 	}
 
+	/**
+	 * Called when the fire of a cell goes out, burned or extinguished.
+	 */
+	public void notifyFireOut(int index){
+		if(extinguishing.isEmpty())
+			return;
+		Bag waiting = extinguishing.remove(index);
+		if(waiting != null){
+			for(int i=0; i<waiting.numObjs; i++){
+				((UAV)waiting.objs[i]).wake(schedule.getSteps() + 1);
+			}
+		}
+	}
+
+	/**
+	 * Branches of the current state of the simulation, to try what happens
+	 * ahead of time (see Rollout). The branches share the forest with this
+	 * simulation until they change it.
+	 */
+	public Rollout[] fork(int branches){
+		for(UAV uav : UAVs){
+			uav.locate(schedule.getSteps() - 1);
+		}
+		Rollout[] rollouts = new Rollout[branches];
+		for(int b=0; b<branches; b++){
+			rollouts[b] = new Rollout(this);
+		}
+		return rollouts;
+	}
+
+	/**
+	 * Run the branches for the given number of steps, on rolloutThreads threads.
+	 */
+	public void rollout(Rollout[] rollouts, int horizon){
+		for(Rollout rollout : rollouts){
+			rollout.horizon = horizon;
+		}
+		int threads = Math.max(1, Math.min(rolloutThreads, rollouts.length));
+		if(threads > 1){
+			ParallelSequence sequence = new ParallelSequence(rollouts, threads);
+			sequence.step(this);
+			sequence.cleanup();
+		} else {
+			for(Rollout rollout : rollouts){
+				rollout.step(this);
+			}
+		}
+	}
+
+	/**
+	 * Bring the position of the UAVs in air up to date, for the display.
+	 * In event driven mode the UAVs only update it when they are stepped.
+	 */
+	public void locateUAVs(){
+		for(UAV uav : UAVs){
+			uav.locate(schedule.getSteps());
+			air.setObjectLocation(uav, new Double3D(uav.x, uav.y, uav.z));
+		}
+	}
+
+	/**
+	 * Create a task for every connected group of fires without one.
+	 * Every group is visited from its first cell, so that all the other
+	 * cells are next to a cell already in the cluster of the task.
+	 */
+	public void groupFires(){
+		IntBag queue = new IntBag();
+		for(int tile=0; tile<forest.tiles(); tile++){
+			//fires are only in the materialized tiles
+			if(!forest.isMaterialized(tile)){
+				continue;
+			}
+			int base = tile << Forest.TILE_CELLS_SHIFT;
+			for(int index=base; index<base+Forest.TILE_CELLS; index++){
+				if(forest.getType(index).equals(CellType.FIRE) && clusters.taskOf(index) == null){
+					Task t = new Task(tasks.size(), new Int2D(forest.x(index), forest.y(index)), 0);
+					clusters.create(t, index);
+					tasks.add(t);
+					queue.clear();
+					queue.add(index);
+					for(int head=0; head<queue.numObjs; head++){
+						int cell = queue.objs[head];
+						int cx = forest.x(cell);
+						int cy = forest.y(cell);
+						for(int d=0; d<8; d++){
+							int nx = cx + SpreadKernel.DX[d];
+							int ny = cy + SpreadKernel.DY[d];
+							if(forest.isInBounds(nx, ny)){
+								int neighbor = forest.index(nx, ny);
+								if(forest.getType(neighbor).equals(CellType.FIRE) && clusters.taskOf(neighbor) == null){
+									clusters.notifyNewFire(neighbor);
+									queue.add(neighbor);
+								}
+							}
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Stop the threads used by the fire
+	 */
+	public void finish(){
+		super.finish();
+		if(front != null){
+			front.cleanup();
+		}
+		if(swarm != null){
+			swarm.cleanup();
+		}
+		//runs stopped before the end of the fire too
+		if(fireController != null){
+			fireController.close();
+			fireController.store(this);
+		}
+		if(recorder != null){
+			recorder.close(this);
+			recorder = null;
+		}
+	}
+
+	/**
+	 * Same stream as SimState (gzip around the serialized state), so that
+	 * doLoop and the Console read it back with SimState.readFromCheckpoint.
+	 * The large arrays are written in blocks of raw values by the classes
+	 * holding them (see Checkpoint), the gzip stream is set to its fastest
+	 * level.
+	 */
+	@Override
+	public void writeToCheckpoint(OutputStream stream) throws IOException{
+		preCheckpoint();
+		GZIPOutputStream g = new GZIPOutputStream(new BufferedOutputStream(stream, 1 << 16), 1 << 16){
+			{ def.setLevel(Deflater.BEST_SPEED); }
+		};
+		ObjectOutputStream s = new ObjectOutputStream(g);
+		s.writeObject(this);
+		s.flush();
+		g.finish();
+		g.flush();
+		postCheckpoint();
+	}
+
+	@Override
+	public void preCheckpoint(){
+		super.preCheckpoint();
+		//the files written by the run are flushed, and referenced by the checkpoint
+		if(fireController != null){
+			fireController.checkpoint();
+		}
+		if(recorder != null){
+			recorder.checkpoint();
+		}
+	}
+
+	@Override
+	public void awakeFromCheckpoint(){
+		super.awakeFromCheckpoint();
+		if(front != null){
+			front.resume(this);
+		}
+		if(fireController != null){
+			fireController.resume();
+		}
+		if(recorder != null){
+			recorder.resume(this);
+		}
+		if(replay != null){
+			try{
+				replay.resume();
+			} catch(IOException e){
+				throw new RuntimeException("Cannot open the replay again", e);
+			}
+		}
+	}
 
 	/**
 	 * PDF
@@ -286,8 +485,34 @@ public class Ignite extends SimState{
 		return (1-Math.pow(c,2)) / (2*Math.PI*(1+Math.pow(c,2)-2*c*Math.cos(x)));
 	}
 
-	public static void main(String[] args){
-		doLoop(Ignite.class, args);
+	/**
+	 * Run the simulation from the command line.
+	 * With -scenario <directory> the map is loaded from the rasters in the
+	 * directory (see Scenario.fromDirectory), the same for all the jobs.
+	 */
+	public static void main(String[] args) throws IOException{
+		Scenario scenario = null;
+		String record = null;
+		for(int i=0; i+1<args.length; i++){
+			if(args[i].equals("-scenario")){
+				scenario = Scenario.fromDirectory(args[i+1]);
+			} else if(args[i].equals("-record")){
+				record = args[i+1];
+			}
+		}
+		final Scenario s = scenario;
+		final String r = record;
+		doLoop(new MakesSimState(){
+			public SimState newInstance(long seed, String[] args){
+				Ignite ignite = new Ignite(seed);
+				ignite.scenario = s;
+				ignite.record = r;
+				return ignite;
+			}
+			public Class<?> simulationClass(){
+				return Ignite.class;
+			}
+		}, args);
 		System.exit(0);
 	}
 }
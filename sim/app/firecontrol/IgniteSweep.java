@@ -0,0 +1,531 @@
+package sim.app.firecontrol;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Parameter sweep over the number of UAVs, the number of fires, the
+ * communication range and the size of the map.
+ * Every replication is an independent Ignite instance (all the state of a run
+ * is part of the instance), so the runs are executed concurrently on a pool
+ * of threads inside the same JVM. The outcome of the runs is aggregated in a
+ * single table, one row per configuration.
+ *
+ * With a target precision the number of replications is not fixed: the
+ * confidence intervals of the cells recovered and burned are updated at
+ * every run, and a configuration stops once both are narrower than the
+ * precision (relative to the mean), or after reps runs. The free threads
+ * always go to the configuration whose intervals are the widest. The runs
+ * of a configuration are taken in the order of their seeds, so the runs
+ * kept do not depend on the order in which the threads end them. Once a
+ * configuration stops, its runs still going on are cancelled.
+ *
+ * Usage:
+ *   java sim.app.firecontrol.IgniteSweep -uavs 10,20 -fires 3 -range 10,30
+ *        -size 60 -reps 30 -threads 8 -seed 1 -for 200000 -allocator auction
+ *        -precision 0.05 -confidence 0.95 -min 5 -out results/sweep.txt
+ *        -store results/runs
+ *
+ * With -store every run kept in the table is also appended to the study
+ * (see ResultsStore).
+ *
+ * @see Ignite
+ */
+public class IgniteSweep{
+
+	/**
+	 * A point of the sweep.
+	 */
+	public static class Config{
+		public int numUAVs;
+		public int fires;
+		public double communicationRange;
+		public int size;
+
+		public Config(int numUAVs, int fires, double communicationRange, int size){
+			this.numUAVs = numUAVs;
+			this.fires = fires;
+			this.communicationRange = communicationRange;
+			this.size = size;
+		}
+
+		@Override
+		public String toString(){
+			return numUAVs + "\t" + fires + "\t" + (int)communicationRange + "\t" + size;
+		}
+	}
+
+	/**
+	 * The outcome of a single replication.
+	 */
+	public static class Run{
+		public Config config;
+		public long seed;
+		public long steps;
+		public boolean finished; //false if the fire was still burning after maxSteps
+		public int recovered;
+		public int burned;
+		public int water;
+		public int normal;
+		public long[] row; //the run as a row of the study, if any (see ResultsStore)
+
+		public Run(Config config, long seed){
+			this.config = config;
+			this.seed = seed;
+		}
+	}
+
+	/**
+	 * Mean and variance of a metric, updated one value at a time (Welford).
+	 */
+	public static class Stats{
+		public int count;
+		public double mean;
+		private double m2;
+
+		public void add(double value){
+			count++;
+			double delta = value - mean;
+			mean += delta/count;
+			m2 += delta*(value - mean);
+		}
+
+		public double variance(){
+			return count < 2 ? 0 : m2/(count - 1);
+		}
+
+		/**
+		 * @return the half width of the confidence interval of the mean
+		 */
+		public double halfWidth(double confidence){
+			if(count < 2){
+				return Double.POSITIVE_INFINITY;
+			}
+			return quantile(confidence, count - 1)*Math.sqrt(variance()/count);
+		}
+
+		/**
+		 * @return the half width relative to the mean, 0 if both are 0
+		 */
+		public double relativeHalfWidth(double confidence){
+			double halfWidth = halfWidth(confidence);
+			if(mean == 0){
+				return halfWidth == 0 ? 0 : Double.POSITIVE_INFINITY;
+			}
+			return halfWidth/Math.abs(mean);
+		}
+	}
+
+	/**
+	 * The replications of a configuration in a sequential sweep.
+	 */
+	static class Replications{
+		Config config;
+		long firstSeed;
+		//runs launched, and runs ended by seed (null if still running)
+		int launched;
+		Run[] runs;
+		//runs taken into the statistics, the first ones by seed
+		int count;
+		Stats recovered = new Stats();
+		Stats burned = new Stats();
+		boolean done;
+
+		Replications(Config config, long firstSeed, int max){
+			this.config = config;
+			this.firstSeed = firstSeed;
+			this.runs = new Run[max];
+		}
+
+		double precision(double confidence){
+			return Math.max(recovered.relativeHalfWidth(confidence), burned.relativeHalfWidth(confidence));
+		}
+	}
+
+	public int[] numUAVs = {20};
+	public int[] fires = {3};
+	public double[] communicationRange = {30};
+	public int[] size = {60};
+	public int replications = 10;
+	public int threads = Runtime.getRuntime().availableProcessors();
+	public long seed = 1;
+	public long maxSteps = 200000;
+	public boolean greedy = false; //use the GreedyAllocator instead of the AuctionAllocator
+	//relative half width of the confidence intervals to reach, 0 to always run
+	//all the replications
+	public double precision = 0;
+	public double confidence = 0.95;
+	public int minReplications = 5; //runs of every configuration before it can stop
+	public ResultsStore store; //study the runs kept are appended to, if any
+
+	/**
+	 * Run a single replication, from start to the end of the fire (or maxSteps).
+	 * An interrupted run ends at the current step.
+	 */
+	public Run run(Config config, long seed){
+		Ignite ignite = new Ignite(seed);
+		ignite.numUAVs = config.numUAVs;
+		ignite.fires = config.fires;
+		ignite.communicationRange = config.communicationRange;
+		ignite.width = config.size;
+		ignite.height = config.size;
+		ignite.writeResults = false;
+		if(greedy){
+			ignite.allocator = new GreedyAllocator();
+		}
+
+		Run run = new Run(config, seed);
+		ignite.start();
+		try{
+			while(ignite.schedule.getSteps() < maxSteps && !Thread.interrupted() && ignite.schedule.step(ignite));
+		} finally{
+			ignite.finish();
+		}
+		run.steps = ignite.schedule.getSteps();
+		run.finished = ignite.cellsOnFire == 0;
+		run.recovered = ignite.forest.count(CellType.EXTINGUISHED);
+		run.burned = ignite.forest.count(CellType.BURNED);
+		run.water = ignite.forest.count(CellType.WATER);
+		run.normal = ignite.forest.count(CellType.NORMAL);
+		if(store != null){
+			run.row = ResultsStore.row(ignite);
+		}
+		return run;
+	}
+
+	//append a run kept to the study, if any
+	private void store(Run run){
+		if(store == null){
+			return;
+		}
+		try{
+			store.append(run.row);
+		} catch(IOException e){
+			System.err.println("Exception in IgniteSweep.store() " + e.toString());
+		}
+	}
+
+	/**
+	 * Run all the replications of all the configurations, or with a precision
+	 * only the replications needed to reach it.
+	 * @return the runs, in the order of the configurations and the replications
+	 */
+	public List<Run> sweep() throws InterruptedException, ExecutionException{
+		if(precision > 0){
+			return sequential();
+		}
+		List<Callable<Run>> jobs = new ArrayList<>();
+		long next = seed;
+		for(Config config : configs()){
+			for(int r=0; r<replications; r++){
+				final Config c = config;
+				final long s = next++;
+				jobs.add(new Callable<Run>(){
+					public Run call(){
+						return run(c, s);
+					}
+				});
+			}
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+		try{
+			List<Run> runs = new ArrayList<>(jobs.size());
+			for(Future<Run> future : pool.invokeAll(jobs)){
+				Run run = future.get();
+				runs.add(run);
+				store(run);
+			}
+			return runs;
+		} finally{
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Run the configurations until their confidence intervals are narrow
+	 * enough, the widest first. A configuration uses the same seeds as in a
+	 * sweep with a fixed number of replications.
+	 */
+	public List<Run> sequential() throws InterruptedException, ExecutionException{
+		List<Replications> studies = new ArrayList<>();
+		long next = seed;
+		for(Config config : configs()){
+			Replications study = new Replications(config, next, Math.max(1, replications));
+			studies.add(study);
+			next += replications;
+		}
+
+		int workers = Math.max(1, threads);
+		ExecutorService pool = Executors.newFixedThreadPool(workers);
+		CompletionService<Run> completion = new ExecutorCompletionService<>(pool);
+		//runs launched and not ended yet, by configuration
+		Map<Future<Run>, Replications> running = new HashMap<>();
+		try{
+			while(true){
+				Replications study;
+				while(running.size() < workers && (study = widest(studies)) != null){
+					final Config c = study.config;
+					final long s = study.firstSeed + study.launched++;
+					running.put(completion.submit(new Callable<Run>(){
+						public Run call(){
+							return run(c, s);
+						}
+					}), study);
+				}
+				if(running.isEmpty()){
+					break;
+				}
+				Future<Run> future = completion.take();
+				study = running.remove(future);
+				if(future.isCancelled()){
+					continue;
+				}
+				collect(study, future.get());
+				if(study.done){
+					//the runs left would not be taken
+					for(Map.Entry<Future<Run>, Replications> entry : running.entrySet()){
+						if(entry.getValue() == study){
+							entry.getKey().cancel(true);
+						}
+					}
+				}
+			}
+		} finally{
+			pool.shutdown();
+		}
+
+		List<Run> runs = new ArrayList<>();
+		for(Replications study : studies){
+			for(int r=0; r<study.count; r++){
+				runs.add(study.runs[r]);
+			}
+		}
+		return runs;
+	}
+
+	//the configuration that needs a run the most, null if none
+	private Replications widest(List<Replications> studies){
+		//every configuration gets its first runs before the others get more
+		Replications widest = null;
+		for(Replications study : studies){
+			if(!study.done && study.launched < Math.min(minReplications, study.runs.length) &&
+					(widest == null || study.launched < widest.launched)){
+				widest = study;
+			}
+		}
+		if(widest != null){
+			return widest;
+		}
+		//then the widest intervals, as they are expected to be once the runs
+		//already launched are done
+		double widestPrecision = precision;
+		for(Replications study : studies){
+			if(study.done || study.launched >= study.runs.length){
+				continue;
+			}
+			double expected = study.count == 0 ? Double.POSITIVE_INFINITY :
+				study.precision(confidence)*Math.sqrt((double)study.count/study.launched);
+			if(expected > widestPrecision){
+				widest = study;
+				widestPrecision = expected;
+			}
+		}
+		return widest;
+	}
+
+	//take the runs of the configuration in the order of the seeds, until the
+	//intervals are narrow enough
+	private void collect(Replications study, Run run){
+		if(study.done){
+			return;
+		}
+		study.runs[(int)(run.seed - study.firstSeed)] = run;
+		while(!study.done && study.count < study.runs.length && study.runs[study.count] != null){
+			Run taken = study.runs[study.count++];
+			study.recovered.add(taken.recovered);
+			study.burned.add(taken.burned);
+			store(taken);
+			if(study.count >= study.runs.length ||
+					(study.count >= minReplications && study.precision(confidence) <= precision)){
+				study.done = true;
+			}
+		}
+	}
+
+	/**
+	 * Quantile of the Student t distribution, for a two-sided interval with
+	 * the given confidence: the normal quantile (Abramowitz and Stegun
+	 * 26.2.23) corrected for the degrees of freedom (26.7.5).
+	 */
+	static double quantile(double confidence, int dof){
+		double p = (1 - confidence)/2;
+		double t = Math.sqrt(-2*Math.log(p));
+		double z = t - (2.515517 + 0.802853*t + 0.010328*t*t)/(1 + 1.432788*t + 0.189269*t*t + 0.001308*t*t*t);
+		double z3 = z*z*z;
+		double z5 = z3*z*z;
+		double z7 = z5*z*z;
+		double n = dof;
+		return z + (z3 + z)/(4*n) + (5*z5 + 16*z3 + 3*z)/(96*n*n) + (3*z7 + 19*z5 + 17*z3 - 15*z)/(384*n*n*n);
+	}
+
+	/**
+	 * @return the cartesian product of the params of the sweep
+	 */
+	public List<Config> configs(){
+		List<Config> configs = new ArrayList<>();
+		for(int s : size){
+			for(int f : fires){
+				for(double c : communicationRange){
+					for(int u : numUAVs){
+						configs.add(new Config(u, f, c, s));
+					}
+				}
+			}
+		}
+		return configs;
+	}
+
+	/**
+	 * Aggregate the runs by configuration: mean and standard deviation of the
+	 * cells recovered and burned and of the steps needed to end the fire.
+	 */
+	public static String table(List<Run> runs){
+		Map<Config, List<Run>> byConfig = new LinkedHashMap<>();
+		for(Run run : runs){
+			List<Run> group = byConfig.get(run.config);
+			if(group == null){
+				group = new ArrayList<>();
+				byConfig.put(run.config, group);
+			}
+			group.add(run);
+		}
+
+		StringBuilder table = new StringBuilder();
+		table.append("uavs\tfires\trange\tsize\truns\tfinished\trecovered\tsd\tburned\tsd\tsteps\tsd\n");
+		for(Map.Entry<Config, List<Run>> entry : byConfig.entrySet()){
+			List<Run> group = entry.getValue();
+			double[] recovered = new double[group.size()];
+			double[] burned = new double[group.size()];
+			double[] steps = new double[group.size()];
+			int finished = 0;
+			for(int i=0; i<group.size(); i++){
+				Run run = group.get(i);
+				recovered[i] = run.recovered;
+				burned[i] = run.burned;
+				steps[i] = run.steps;
+				if(run.finished){
+					finished++;
+				}
+			}
+			table.append(entry.getKey()).append('\t')
+				.append(group.size()).append('\t')
+				.append(finished).append('\t')
+				.append(String.format("%.1f\t%.1f\t", mean(recovered), sd(recovered)))
+				.append(String.format("%.1f\t%.1f\t", mean(burned), sd(burned)))
+				.append(String.format("%.0f\t%.0f\n", mean(steps), sd(steps)));
+		}
+		return table.toString();
+	}
+
+	static double mean(double[] values){
+		double sum = 0;
+		for(double v : values){
+			sum += v;
+		}
+		return values.length == 0 ? 0 : sum/values.length;
+	}
+
+	static double sd(double[] values){
+		if(values.length < 2){
+			return 0;
+		}
+		double mean = mean(values);
+		double sum = 0;
+		for(double v : values){
+			sum += (v - mean)*(v - mean);
+		}
+		return Math.sqrt(sum/(values.length - 1));
+	}
+
+	static int[] parseInts(String list){
+		String[] values = list.split(",");
+		int[] parsed = new int[values.length];
+		for(int i=0; i<values.length; i++){
+			parsed[i] = Integer.parseInt(values[i].trim());
+		}
+		return parsed;
+	}
+
+	static double[] parseDoubles(String list){
+		String[] values = list.split(",");
+		double[] parsed = new double[values.length];
+		for(int i=0; i<values.length; i++){
+			parsed[i] = Double.parseDouble(values[i].trim());
+		}
+		return parsed;
+	}
+
+	public static void main(String[] args) throws Exception{
+		IgniteSweep sweep = new IgniteSweep();
+		String out = null;
+		for(int i=0; i+1<args.length; i+=2){
+			String value = args[i+1];
+			switch(args[i]){
+			case "-uavs": sweep.numUAVs = parseInts(value); break;
+			case "-fires": sweep.fires = parseInts(value); break;
+			case "-range": sweep.communicationRange = parseDoubles(value); break;
+			case "-size": sweep.size = parseInts(value); break;
+			case "-reps": sweep.replications = Integer.parseInt(value); break;
+			case "-threads": sweep.threads = Integer.parseInt(value); break;
+			case "-seed": sweep.seed = Long.parseLong(value); break;
+			case "-for": sweep.maxSteps = Long.parseLong(value); break;
+			case "-allocator": sweep.greedy = value.equals("greedy"); break;
+			case "-precision": sweep.precision = Double.parseDouble(value); break;
+			case "-confidence": sweep.confidence = Double.parseDouble(value); break;
+			case "-min": sweep.minReplications = Integer.parseInt(value); break;
+			case "-out": out = value; break;
+			case "-store": sweep.store = new ResultsStore(value); break;
+			default:
+				System.err.println("Unknown option " + args[i]);
+				System.exit(1);
+			}
+		}
+
+		long start = System.currentTimeMillis();
+		String table = table(sweep.sweep());
+		System.out.print(table);
+		System.out.println("Sweep done in " + (System.currentTimeMillis() - start) + " ms");
+		if(sweep.store != null){
+			sweep.store.flush();
+		}
+
+		if(out != null){
+			File file = new File(out);
+			if(file.getParentFile() != null){
+				file.getParentFile().mkdirs();
+			}
+			try(BufferedWriter bwr = new BufferedWriter(new FileWriter(file))){
+				bwr.append(table);
+			} catch(IOException e){
+				System.err.println("Exception in IgniteSweep.main() " + e.toString());
+				e.printStackTrace();
+			}
+		}
+		System.exit(0);
+	}
+}
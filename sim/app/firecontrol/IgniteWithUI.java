@@ -17,6 +17,7 @@ import sim.display.Controller;
 import sim.display.Display2D;
 import sim.display.GUIState;
 import sim.engine.SimState;
+import sim.engine.Steppable;
 import sim.portrayal.DrawInfo2D;
 import sim.portrayal.continuous.Continuous3DPortrayal2D;
 import sim.portrayal.grid.FastObjectGridPortrayal2D;
@@ -31,24 +32,33 @@ public class IgniteWithUI extends GUIState
 	public Display2D display;
 	public JFrame displayFrame;
 
-	public static void main(String[] args){
+	public static void main(String[] args) throws java.io.IOException{
+		//show a recorded run (see EventLog) instead of simulating a new one
+		for(int i=0; i+1<args.length; i++){
+			if(args[i].equals("-replay")){
+				Ignite ignite = new Ignite(0);
+				ignite.replay = new Replay(args[i+1]);
+				new IgniteWithUI(ignite).createController();
+				return;
+			}
+		}
 		new IgniteWithUI().createController();  // randomizes by currentTimeMillis
 	}
 
 	Continuous3DPortrayal2D airPortrayal = new Continuous3DPortrayal2D();
 	FastObjectGridPortrayal2D cellPortrayal = new FastObjectGridPortrayal2D(){
 		public double doubleValue(Object obj){
-			WorldCell cell = (WorldCell) obj;
-			if(cell.type == CellType.NORMAL || cell.type == CellType.EXTINGUISHED){
+			CellType type = ((WorldCell) obj).getType();
+			if(type == CellType.NORMAL || type == CellType.EXTINGUISHED){
 				return 0;
 			}
-			if(cell.type == CellType.FIRE){
+			if(type == CellType.FIRE){
 				return 1;
 			}
-			if(cell.type == CellType.BURNED){
+			if(type == CellType.BURNED){
 				return 2;
 			}
-			if(cell.type == CellType.WATER){
+			if(type == CellType.WATER){
 				return 3;
 			}
 			return 0;
@@ -70,6 +80,19 @@ public class IgniteWithUI extends GUIState
 	public void start(){
 		super.start();
 		setupPortrayals();
+		//UAVs only update their position when they are stepped
+		state.schedule.scheduleRepeating(new Steppable(){
+			private static final long serialVersionUID = 1L;
+			public void step(SimState state){
+				((Ignite)state).locateUAVs();
+			}
+		}, 6, 1);
+	}
+
+	//the step and the speed of a replay can be changed from the model tab
+	public Object getSimulationInspectedObject(){
+		Ignite ignite = (Ignite)state;
+		return ignite.replay;
 	}
 
 	public void load(SimState state){
@@ -80,8 +103,8 @@ public class IgniteWithUI extends GUIState
 	public void setupPortrayals(){
 		Ignite ignite= (Ignite)state;
 
-		// set up the cellPortrayal
-		this.cellPortrayal.setField(ignite.forest);
+		// set up the cellPortrayal, the cells are views over the forest
+		this.cellPortrayal.setField(ignite.forest.toObjectGrid());
 		Color colors[] = new Color[]{new Color(50,180,20,255), new Color(180,50,20,255), Color.gray, Color.blue};
 		final SimpleColorMap map = new sim.util.gui.SimpleColorMap(colors);
 		cellPortrayal.setMap(map);
@@ -125,7 +148,7 @@ public class IgniteWithUI extends GUIState
 		c.registerFrame(displayFrame);   // register the frame so it appears in the "Display" list
 		displayFrame.setVisible(true);
 		display.attach( cellPortrayal, "Forest" );
-		display.attach( airPortrayal, "UAVs" , dispWidth/(Ignite.width*2), dispHeight/(Ignite.height*2), true);
+		display.attach( airPortrayal, "UAVs" , dispWidth/(((Ignite)state).width*2), dispHeight/(((Ignite)state).height*2), true);
 	}
 
 	public void quit()
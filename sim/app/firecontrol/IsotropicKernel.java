@@ -0,0 +1,14 @@
+package sim.app.firecontrol;
+
+/**
+ * The original model: a normal cell close to a fire loses the same status
+ * whatever the number and the position of its burning neighbors.
+ */
+public class IsotropicKernel extends SpreadKernel{
+	private static final long serialVersionUID = 1L;
+
+	@Override
+	public double spread(Forest forest, int x, int y, int burning, double random){
+		return isotropic(random);
+	}
+}
@@ -0,0 +1,100 @@
+package sim.app.firecontrol;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+/**
+ * What a UAV knows about the forest, stored as one compressed bitmap per
+ * state of the cells:
+ * - visited, the UAV (or a teammate) has been over the cell
+ * - fire, the cell was on fire when last seen
+ * - extinguished, the cell has been seen extinguished
+ * Knowledge is exchanged as deltas: the cells learned since the last packet
+ * are merged into the knowledge of the receivers with a few bitwise ors.
+ * A UAV without a task reads it to bid for the closest fire it knows of.
+ * In a checkpoint the three bitmaps are written in the same blocks.
+ */
+public class Knowledge implements java.io.Serializable{
+	private static final long serialVersionUID = 1L;
+
+	public transient CellBitmap visited = new CellBitmap();
+	public transient CellBitmap fire = new CellBitmap();
+	public transient CellBitmap extinguished = new CellBitmap();
+
+	/**
+	 * Store the state of a cell seen by the UAV.
+	 * @return true if something new has been learned
+	 */
+	public boolean observe(int index, CellType type){
+		boolean changed = visited.set(index);
+		if(type.equals(CellType.FIRE)){
+			changed |= fire.set(index);
+		} else {
+			changed |= fire.clear(index);
+		}
+		if(type.equals(CellType.EXTINGUISHED)){
+			changed |= extinguished.set(index);
+		}
+		return changed;
+	}
+
+	/**
+	 * Merge the knowledge of a teammate into this one.
+	 * Extinguished cells are not on fire anymore.
+	 */
+	public void merge(Knowledge other){
+		visited.or(other.visited);
+		extinguished.or(other.extinguished);
+		fire.or(other.fire);
+		fire.andNot(extinguished);
+	}
+
+	public boolean isEmpty(){
+		return visited.isEmpty();
+	}
+
+	public boolean isVisited(int index){
+		return visited.get(index);
+	}
+
+	public boolean isOnFire(int index){
+		return fire.get(index);
+	}
+
+	public boolean isExtinguished(int index){
+		return extinguished.get(index);
+	}
+
+	/**
+	 * @return the first cell known to be on fire from the given index on, or -1
+	 */
+	public int nextFire(int from){
+		return fire.nextSetBit(from);
+	}
+
+	private void writeObject(ObjectOutputStream out) throws IOException{
+		out.defaultWriteObject();
+		Checkpoint.Output blocks = new Checkpoint.Output(out);
+		visited.write(blocks);
+		fire.write(blocks);
+		extinguished.write(blocks);
+		blocks.close();
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException{
+		in.defaultReadObject();
+		Checkpoint.Input blocks = new Checkpoint.Input(in);
+		visited = CellBitmap.read(blocks);
+		fire = CellBitmap.read(blocks);
+		extinguished = CellBitmap.read(blocks);
+		blocks.close();
+	}
+
+	/**
+	 * @return the memory used by the bitmaps, in bytes
+	 */
+	public long bytes(){
+		return visited.bytes() + fire.bytes() + extinguished.bytes();
+	}
+}
@@ -0,0 +1,142 @@
+package sim.app.firecontrol;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A raw (P5) PGM file mapped in memory.
+ * The samples are read from the mapping when needed, the raster is never
+ * copied in an array: a multi-gigapixel map only costs the pages actually
+ * touched by the simulation, and the mapping is shared by all the runs.
+ * The file is mapped in segments of 1GB as a single mapping cannot exceed 2GB.
+ * A checkpoint only holds the path of the file, mapped again when restored.
+ *
+ * @see <a href="http://netpbm.sourceforge.net/doc/pgm.html">PGM</a>
+ */
+public class MappedRaster implements Raster{
+	private static final long serialVersionUID = 1L;
+
+	static final int SEGMENT_SHIFT = 30;
+	static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+
+	private final int width;
+	private final int height;
+	private final int bytesPerSample; //1 or 2, most significant byte first
+	private final long offset; //first byte of the samples
+	private final String path;
+	private transient MappedByteBuffer[] segments;
+
+	public MappedRaster(String path) throws IOException{
+		this.path = path;
+		try(RandomAccessFile file = new RandomAccessFile(path, "r")){
+			Header header = new Header(file);
+			if(!header.magic.equals("P5")){
+				throw new IOException("Not a raw PGM file: " + path);
+			}
+			this.width = header.width;
+			this.height = header.height;
+			this.bytesPerSample = header.maxVal < 256 ? 1 : 2;
+			this.offset = header.offset;
+			if(header.maxVal >= 65536){
+				throw new IOException("PGM samples larger than 2 bytes are not supported: " + path);
+			}
+
+			map(file);
+		}
+	}
+
+	private void map(RandomAccessFile file) throws IOException{
+		long size = offset + (long)width*height*bytesPerSample;
+		if(file.length() < size){
+			throw new IOException("PGM file is truncated: " + path);
+		}
+		FileChannel channel = file.getChannel();
+		segments = new MappedByteBuffer[(int)((size + SEGMENT_MASK) >>> SEGMENT_SHIFT)];
+		for(int s=0; s<segments.length; s++){
+			long start = (long)s << SEGMENT_SHIFT;
+			segments[s] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(size - start, SEGMENT_MASK + 1));
+		}
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException{
+		in.defaultReadObject();
+		try(RandomAccessFile file = new RandomAccessFile(path, "r")){
+			map(file);
+		}
+	}
+
+	public int getWidth(){
+		return width;
+	}
+
+	public int getHeight(){
+		return height;
+	}
+
+	//the rows of the file follow the y axis
+	public double get(int x, int y){
+		long position = offset + ((long)y*width + x)*bytesPerSample;
+		if(bytesPerSample == 1){
+			return read(position);
+		}
+		return (read(position) << 8) | read(position + 1);
+	}
+
+	//absolute reads do not move the buffers, so they are safe from any thread
+	private int read(long position){
+		return segments[(int)(position >>> SEGMENT_SHIFT)].get((int)(position & SEGMENT_MASK)) & 0xFF;
+	}
+
+	/**
+	 * @return true if the file starts as a raw PGM file
+	 */
+	public static boolean isRawPGM(String path) throws IOException{
+		try(RandomAccessFile file = new RandomAccessFile(path, "r")){
+			return file.length() >= 2 && file.read() == 'P' && file.read() == '5';
+		}
+	}
+
+	//magic number, sizes and max value of a PNM file, comments are skipped
+	static class Header{
+		String magic;
+		int width;
+		int height;
+		int maxVal;
+		long offset;
+
+		Header(RandomAccessFile file) throws IOException{
+			magic = token(file);
+			width = Integer.parseInt(token(file));
+			height = Integer.parseInt(token(file));
+			maxVal = Integer.parseInt(token(file));
+			//a single whitespace separates the header from the samples,
+			//it has been consumed by the last token
+			offset = file.getFilePointer();
+		}
+
+		private static String token(RandomAccessFile file) throws IOException{
+			StringBuilder b = new StringBuilder();
+			int c;
+			while(true){
+				c = file.read();
+				if(c == -1){
+					throw new IOException("PGM header ended prematurely");
+				} else if(c == '#'){
+					while(c != '\n' && c != '\r' && c != -1){
+						c = file.read();
+					}
+				} else if(!Character.isWhitespace((char)c)){
+					break;
+				}
+			}
+			while(c != -1 && !Character.isWhitespace((char)c)){
+				b.append((char)c);
+				c = file.read();
+			}
+			return b.toString();
+		}
+	}
+}
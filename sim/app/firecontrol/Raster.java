@@ -0,0 +1,63 @@
+package sim.app.firecontrol;
+
+import sim.field.grid.DoubleGrid2D;
+
+/**
+ * A read-only layer of values over the forest, indexed as [x][y].
+ * Rasters are shared by all the runs using the same scenario, so they must
+ * never be written once built. Rasters are part of a checkpoint: the views
+ * are written with their arrays, the mapped files with their path.
+ *
+ * @see Scenario
+ */
+public interface Raster extends java.io.Serializable{
+
+	public int getWidth();
+
+	public int getHeight();
+
+	public double get(int x, int y);
+
+	/**
+	 * @return a view over the grid, no copy is made
+	 */
+	public static Raster of(final DoubleGrid2D grid){
+		return of(grid.field);
+	}
+
+	/**
+	 * @return a view over the array, no copy is made
+	 */
+	public static Raster of(final double[][] values){
+		return new Raster(){
+			public int getWidth(){ return values.length; }
+			public int getHeight(){ return values.length == 0 ? 0 : values[0].length; }
+			public double get(int x, int y){ return values[x][y]; }
+		};
+	}
+
+	/**
+	 * @return a view over the array, no copy is made
+	 */
+	public static Raster of(final int[][] values){
+		return new Raster(){
+			public int getWidth(){ return values.length; }
+			public int getHeight(){ return values.length == 0 ? 0 : values[0].length; }
+			public double get(int x, int y){ return values[x][y]; }
+		};
+	}
+
+	/**
+	 * @return a view over the raster with all the values multiplied by scale
+	 */
+	public static Raster scaled(final Raster raster, final double scale){
+		if(scale == 1){
+			return raster;
+		}
+		return new Raster(){
+			public int getWidth(){ return raster.getWidth(); }
+			public int getHeight(){ return raster.getHeight(); }
+			public double get(int x, int y){ return scale*raster.get(x, y); }
+		};
+	}
+}
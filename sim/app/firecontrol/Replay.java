@@ -0,0 +1,269 @@
+package sim.app.firecontrol;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.LinkedList;
+
+import sim.engine.SimState;
+import sim.engine.Steppable;
+import sim.field.continuous.Continuous3D;
+import sim.util.Double3D;
+
+/**
+ * Replay of a run recorded by an EventLog.
+ * The log is mapped in memory and its records are applied to the forest and
+ * to the UAVs of the simulation, that are drawn by the usual portrayals:
+ * nothing is simulated. Every step of the replay moves stride steps of the
+ * recorded run forward.
+ *
+ * When the log is opened the keyframes are indexed, seeking to a step
+ * applies the closest keyframe before it and the frames up to the step.
+ * The file is mapped in segments of 1GB as a single mapping cannot exceed 2GB.
+ * A checkpoint only holds the path of the log, mapped again when restored.
+ *
+ * @see EventLog
+ */
+public class Replay implements Steppable{
+	private static final long serialVersionUID = 1L;
+
+	static final int SEGMENT_SHIFT = 30;
+	static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+	//magic, version, width, height, UAVs, keyframe interval
+	static final int HEADER = 24;
+
+	public int stride = 1;
+
+	private final String fileName;
+	private transient MappedByteBuffer[] segments;
+	private final long size;
+	private final int width;
+	private final int height;
+	private final int numUAVs;
+	//step and position of every keyframe
+	private long[] keyframeSteps = new long[16];
+	private long[] keyframes = new long[16];
+	private int keyframeCount;
+	private long lastStep;
+
+	private Ignite ignite;
+	private UAV[] uavs;
+	//step shown, and position of the first record after it
+	private long step;
+	private long position;
+	//reading position in the log
+	private long cursor;
+
+	public Replay(String fileName) throws IOException{
+		this.fileName = fileName;
+		try(RandomAccessFile file = new RandomAccessFile(fileName, "r")){
+			size = file.length();
+			if(size < HEADER || file.readInt() != EventLog.MAGIC){
+				throw new IOException("Not an event log: " + fileName);
+			}
+			if(file.readInt() != EventLog.VERSION){
+				throw new IOException("Unsupported version of the event log: " + fileName);
+			}
+			width = file.readInt();
+			height = file.readInt();
+			numUAVs = file.readInt();
+			map(file);
+		}
+
+		//index the keyframes, skipping the payload of the records
+		for(long record=HEADER; record<size; record=next(record)){
+			cursor = record + 5;
+			long recordStep = readLong();
+			if(read(record) == EventLog.KEYFRAME){
+				if(keyframeCount == keyframes.length){
+					keyframes = Arrays.copyOf(keyframes, keyframeCount*2);
+					keyframeSteps = Arrays.copyOf(keyframeSteps, keyframeCount*2);
+				}
+				keyframes[keyframeCount] = record;
+				keyframeSteps[keyframeCount] = recordStep;
+				keyframeCount++;
+			}
+			lastStep = recordStep;
+		}
+		if(keyframeCount == 0){
+			throw new IOException("Event log without keyframes: " + fileName);
+		}
+	}
+
+	private void map(RandomAccessFile file) throws IOException{
+		FileChannel channel = file.getChannel();
+		segments = new MappedByteBuffer[(int)((size + SEGMENT_MASK) >>> SEGMENT_SHIFT)];
+		for(int s=0; s<segments.length; s++){
+			long start = (long)s << SEGMENT_SHIFT;
+			segments[s] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(size - start, SEGMENT_MASK + 1));
+		}
+	}
+
+	/**
+	 * Map the log again once restored from a checkpoint.
+	 */
+	public void resume() throws IOException{
+		try(RandomAccessFile file = new RandomAccessFile(fileName, "r")){
+			if(file.length() < size){
+				throw new IOException("Event log is truncated: " + fileName);
+			}
+			map(file);
+		}
+	}
+
+	/**
+	 * Set up the simulation to show the beginning of the run, instead of
+	 * generating a new world.
+	 */
+	public void start(Ignite ignite){
+		this.ignite = ignite;
+		ignite.width = width;
+		ignite.height = height;
+		ignite.numUAVs = numUAVs;
+		ignite.forest = new Forest(width, height);
+		ignite.air = new Continuous3D(1, width, height, ignite.depth);
+		ignite.tasks = new LinkedList<>();
+		ignite.UAVs = new LinkedList<>();
+		uavs = new UAV[numUAVs];
+		for(int i=0; i<numUAVs; i++){
+			uavs[i] = new UAV(i, new Double3D(), ignite);
+			ignite.UAVs.add(uavs[i]);
+			ignite.air.setObjectLocation(uavs[i], new Double3D());
+		}
+		//the log starts with a keyframe
+		step = keyframeSteps[0];
+		position = HEADER;
+		forward(step);
+		ignite.schedule.scheduleRepeating(this, 0, 1);
+	}
+
+	@Override
+	public void step(SimState state){
+		forward(step + stride);
+		if(position >= size){
+			state.kill();
+		}
+	}
+
+	// Used to display and change the state of the replay in the inspectors
+	public long getStep(){
+		return step;
+	}
+
+	public void setStep(long step){
+		seek(step);
+	}
+
+	public long getLastStep(){
+		return lastStep;
+	}
+
+	public int getStride(){
+		return stride;
+	}
+
+	public void setStride(int stride){
+		this.stride = Math.max(1, stride);
+	}
+
+	/**
+	 * Show the state of the run after the given number of steps.
+	 */
+	public void seek(long target){
+		int k = Arrays.binarySearch(keyframeSteps, 0, keyframeCount, target);
+		if(k < 0){
+			k = Math.max(0, -k - 2);
+		}
+		//going forward from the current state is cheaper than from the keyframe
+		if(target < step || keyframeSteps[k] > step){
+			position = keyframes[k];
+		}
+		forward(target);
+	}
+
+	//apply the records up to the given step
+	private void forward(long target){
+		while(position < size){
+			cursor = position + 5;
+			long recordStep = readLong();
+			if(recordStep > target){
+				break;
+			}
+			if(read(position) == EventLog.KEYFRAME){
+				applyKeyframe();
+			} else {
+				applyFrame();
+			}
+			position = next(position);
+		}
+		step = target;
+	}
+
+	private void applyKeyframe(){
+		Forest forest = ignite.forest;
+		forest.setTo(CellType.NORMAL);
+		applyCells();
+		for(UAV uav : uavs){
+			uav.x = (double)readSigned()/EventLog.SCALE;
+			uav.y = (double)readSigned()/EventLog.SCALE;
+			uav.z = (double)readSigned()/EventLog.SCALE;
+			ignite.air.setObjectLocation(uav, new Double3D(uav.x, uav.y, uav.z));
+		}
+	}
+
+	private void applyFrame(){
+		applyCells();
+		int moved = readInt();
+		int id = 0;
+		for(int i=0; i<moved; i++){
+			id += readInt();
+			UAV uav = uavs[id];
+			uav.x += (double)readSigned()/EventLog.SCALE;
+			uav.y += (double)readSigned()/EventLog.SCALE;
+			ignite.air.setObjectLocation(uav, new Double3D(uav.x, uav.y, uav.z));
+		}
+	}
+
+	private void applyCells(){
+		int cells = readInt();
+		int index = 0;
+		for(int i=0; i<cells; i++){
+			index += readInt();
+			ignite.forest.setType(index, Forest.TYPES[read(cursor++)]);
+		}
+	}
+
+	//position of the record after the one at the given position
+	private long next(long record){
+		long length = ((long)read(record+1) << 24) | (read(record+2) << 16) | (read(record+3) << 8) | read(record+4);
+		return record + 5 + length;
+	}
+
+	//absolute reads do not move the buffers
+	private int read(long position){
+		return segments[(int)(position >>> SEGMENT_SHIFT)].get((int)(position & SEGMENT_MASK)) & 0xFF;
+	}
+
+	private long readLong(){
+		long value = 0;
+		int shift = 0;
+		int b;
+		do{
+			b = read(cursor++);
+			value |= (long)(b & 0x7F) << shift;
+			shift += 7;
+		} while((b & 0x80) != 0);
+		return value;
+	}
+
+	private int readInt(){
+		return (int)readLong();
+	}
+
+	private int readSigned(){
+		int value = readInt();
+		return (value >>> 1) ^ -(value & 1);
+	}
+}
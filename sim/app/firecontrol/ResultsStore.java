@@ -0,0 +1,598 @@
+package sim.app.firecontrol;
+
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Append-only store of the outcome of the runs of a study, by column, in
+ * place of a text file per run:
+ *
+ * study.runs: magic, version, number of columns, names of the columns, then
+ *   the blocks of runs. A block holds all its values of the first column,
+ *   then of the second one and so on, every value is a long.
+ * study.idx: magic, version, then for every block its position in the .runs
+ *   file, its number of runs and the min and max of every column.
+ *
+ * The runs are buffered and written a block at a time. The index entry of
+ * a block is written after the block, a block is only seen once complete.
+ * Processes appending to the same study take a lock on the index. The runs
+ * of a process share one store per study (see of(String)), flushed when
+ * its buffer is full and when the process exits.
+ * A query reads the index, skips the blocks out of the range of its filter
+ * and maps the others (see Table).
+ *
+ * Usage:
+ *   java sim.app.firecontrol.ResultsStore -import results -study results/runs
+ *   java sim.app.firecontrol.ResultsStore -study results/runs -by fires,uavs,range
+ */
+public class ResultsStore{
+
+	static final int MAGIC = 0x49474E52; //IGNR
+	static final int VERSION = 1;
+	//runs buffered before a block is written
+	static final int BLOCK = 4096;
+
+	/** Columns of the runs of a simulation (see append(Ignite)) */
+	public static final String[] RUN = {"time", "seed", "cells", "fires", "uavs", "range",
+			"steps", "finished", "recovered", "burned", "water", "normal"};
+
+	//stores shared by the runs of this process, by study
+	private static final Map<String, ResultsStore> SHARED = new LinkedHashMap<>();
+
+	private File data;
+	private File index;
+	private String[] columns;
+	//runs not written yet, by column
+	private long[][] buffer;
+	private int buffered;
+
+	/**
+	 * Open the study at the given path (without extension), creating it with
+	 * the given columns if needed.
+	 */
+	public ResultsStore(String study, String[] columns) throws IOException{
+		this.data = new File(study + ".runs");
+		this.index = new File(study + ".idx");
+		this.columns = columns.clone();
+		this.buffer = new long[columns.length][BLOCK];
+		if(data.exists() && data.length() > 0){
+			String[] existing = readColumns(data);
+			if(!Arrays.equals(existing, columns)){
+				throw new IOException("Study " + study + " has columns " + Arrays.toString(existing));
+			}
+		}
+	}
+
+	/**
+	 * Open the study of the runs of a simulation.
+	 */
+	public ResultsStore(String study) throws IOException{
+		this(study, RUN);
+	}
+
+	/**
+	 * @return the store of the runs of a simulation for the given study,
+	 * shared by all the runs of this process. The runs still buffered are
+	 * written when the process exits.
+	 */
+	public static synchronized ResultsStore of(String study) throws IOException{
+		ResultsStore store = SHARED.get(study);
+		if(store == null){
+			if(SHARED.isEmpty()){
+				Runtime.getRuntime().addShutdownHook(new Thread(){
+					public void run(){
+						flushShared();
+					}
+				});
+			}
+			store = new ResultsStore(study);
+			SHARED.put(study, store);
+		}
+		return store;
+	}
+
+	/**
+	 * Write the runs buffered by the shared stores.
+	 */
+	public static synchronized void flushShared(){
+		for(ResultsStore store : SHARED.values()){
+			try{
+				store.flush();
+			} catch(IOException e){
+				System.err.println("Exception in ResultsStore.flushShared() " + e.toString());
+			}
+		}
+	}
+
+	public String[] getColumns(){
+		return columns.clone();
+	}
+
+	/**
+	 * Append a run, written with the next block or at flush.
+	 * Safe to call concurrently.
+	 */
+	public synchronized void append(long[] row) throws IOException{
+		if(row.length != columns.length){
+			throw new IllegalArgumentException("Expected " + columns.length + " values, got " + row.length);
+		}
+		for(int c=0; c<columns.length; c++){
+			buffer[c][buffered] = row[c];
+		}
+		if(++buffered == BLOCK){
+			flush();
+		}
+	}
+
+	/**
+	 * Append the outcome of a run of the simulation, at its end.
+	 */
+	public void append(Ignite ignite) throws IOException{
+		append(row(ignite));
+	}
+
+	/**
+	 * @return the outcome of a run of the simulation, at its end, as a row
+	 * with the RUN columns
+	 */
+	public static long[] row(Ignite ignite){
+		Forest forest = ignite.forest;
+		return new long[]{
+				System.currentTimeMillis(),
+				ignite.seed(),
+				(long)ignite.width*ignite.height,
+				ignite.fires,
+				ignite.numUAVs,
+				(long)ignite.communicationRange,
+				ignite.schedule.getSteps(),
+				ignite.cellsOnFire == 0 ? 1 : 0,
+				forest.count(CellType.EXTINGUISHED),
+				forest.count(CellType.BURNED),
+				forest.count(CellType.WATER),
+				forest.count(CellType.NORMAL)};
+	}
+
+	/**
+	 * Write the runs buffered as a block.
+	 */
+	public synchronized void flush() throws IOException{
+		if(buffered == 0){
+			return;
+		}
+		if(data.getParentFile() != null){
+			data.getParentFile().mkdirs();
+		}
+		try(RandomAccessFile idx = new RandomAccessFile(index, "rw");
+				RandomAccessFile runs = new RandomAccessFile(data, "rw")){
+			//released when the index is closed
+			idx.getChannel().lock();
+			if(runs.length() == 0){
+				runs.writeInt(MAGIC);
+				runs.writeInt(VERSION);
+				runs.writeInt(columns.length);
+				for(String column : columns){
+					runs.writeUTF(column);
+				}
+			}
+			if(idx.length() == 0){
+				idx.writeInt(MAGIC);
+				idx.writeInt(VERSION);
+			}
+			//drop what a crashed writer left after the last block indexed
+			long position = end(idx, runs.length());
+
+			ByteBuffer block = ByteBuffer.allocate(8*columns.length*buffered);
+			ByteBuffer entry = ByteBuffer.allocate(entrySize(columns.length));
+			entry.putLong(position).putInt(buffered);
+			for(int c=0; c<columns.length; c++){
+				long min = Long.MAX_VALUE, max = Long.MIN_VALUE;
+				for(int r=0; r<buffered; r++){
+					long value = buffer[c][r];
+					block.putLong(value);
+					min = Math.min(min, value);
+					max = Math.max(max, value);
+				}
+				entry.putLong(min).putLong(max);
+			}
+			runs.getChannel().write(ByteBuffer.wrap(block.array()), position);
+			runs.getChannel().force(false);
+			idx.getChannel().write(ByteBuffer.wrap(entry.array()), idx.length() - (idx.length() - 8)%entrySize(columns.length));
+		}
+		buffered = 0;
+	}
+
+	//position after the last block in the index
+	private long end(RandomAccessFile idx, long length) throws IOException{
+		long entries = (idx.length() - 8)/entrySize(columns.length);
+		if(entries == 0){
+			return headerSize(columns);
+		}
+		ByteBuffer last = ByteBuffer.allocate(12);
+		idx.getChannel().read(last, 8 + (entries - 1)*entrySize(columns.length));
+		last.flip();
+		long position = last.getLong();
+		return Math.min(length, position + 8L*columns.length*last.getInt());
+	}
+
+	/**
+	 * @return all the runs of the study, written so far
+	 */
+	public Table load() throws IOException{
+		return query(null, Long.MIN_VALUE, Long.MAX_VALUE);
+	}
+
+	/**
+	 * @return the runs with the column in [min,max], the blocks out of the
+	 * range are not read
+	 */
+	public Table query(String column, long min, long max) throws IOException{
+		Table table = new Table(columns, 0);
+		if(!data.exists() || !index.exists()){
+			return table;
+		}
+		int filtered = column == null ? -1 : table.indexOf(column);
+		int entry = entrySize(columns.length);
+		try(RandomAccessFile idx = new RandomAccessFile(index, "r");
+				RandomAccessFile runs = new RandomAccessFile(data, "r")){
+			ByteBuffer entries = ByteBuffer.allocate((int)Math.max(0, idx.length() - 8)/entry*entry);
+			idx.getChannel().read(entries, 8);
+			entries.flip();
+			long size = runs.length();
+
+			//blocks in range, and their total number of runs
+			List<long[]> blocks = new ArrayList<>();
+			int total = 0;
+			while(entries.remaining() >= entry){
+				long position = entries.getLong();
+				int rows = entries.getInt();
+				boolean match = true;
+				for(int c=0; c<columns.length; c++){
+					long low = entries.getLong();
+					long high = entries.getLong();
+					if(c == filtered && (high < min || low > max)){
+						match = false;
+					}
+				}
+				if(match && position + 8L*columns.length*rows <= size){
+					blocks.add(new long[]{position, rows});
+					total += rows;
+				}
+			}
+
+			table = new Table(columns, total);
+			if(total == 0){
+				return table;
+			}
+			long start = blocks.get(0)[0];
+			long end = blocks.get(blocks.size() - 1)[0] + 8L*columns.length*blocks.get(blocks.size() - 1)[1];
+			MappedByteBuffer map = runs.getChannel().map(FileChannel.MapMode.READ_ONLY, start, end - start);
+			LongBuffer values = map.asLongBuffer();
+			int row = 0;
+			for(long[] block : blocks){
+				int rows = (int)block[1];
+				int first = (int)((block[0] - start) >>> 3);
+				for(int c=0; c<columns.length; c++){
+					values.position(first + c*rows);
+					values.get(table.values[c], row, rows);
+				}
+				row += rows;
+			}
+		}
+		return filtered < 0 ? table : table.where(column, min, max);
+	}
+
+	static int entrySize(int columns){
+		return 8 + 4 + 16*columns;
+	}
+
+	static long headerSize(String[] columns) throws IOException{
+		java.io.ByteArrayOutputStream bytes = new java.io.ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(columns.length);
+		for(String column : columns){
+			out.writeUTF(column);
+		}
+		return bytes.size();
+	}
+
+	static String[] readColumns(File data) throws IOException{
+		try(RandomAccessFile runs = new RandomAccessFile(data, "r")){
+			if(runs.readInt() != MAGIC){
+				throw new IOException("Not a results store: " + data);
+			}
+			if(runs.readInt() != VERSION){
+				throw new IOException("Unsupported version of the results store: " + data);
+			}
+			String[] columns = new String[runs.readInt()];
+			for(int c=0; c<columns.length; c++){
+				columns[c] = runs.readUTF();
+			}
+			return columns;
+		}
+	}
+
+	/**
+	 * Runs of a study, by column.
+	 */
+	public static class Table{
+		public final String[] columns;
+		public final int rows;
+		final long[][] values;
+
+		Table(String[] columns, int rows){
+			this.columns = columns;
+			this.rows = rows;
+			this.values = new long[columns.length][rows];
+		}
+
+		int indexOf(String column){
+			for(int c=0; c<columns.length; c++){
+				if(columns[c].equals(column)){
+					return c;
+				}
+			}
+			throw new IllegalArgumentException("No column " + column);
+		}
+
+		/**
+		 * @return the values of the column, not a copy
+		 */
+		public long[] column(String column){
+			return values[indexOf(column)];
+		}
+
+		/**
+		 * @return the runs with the column in [min,max]
+		 */
+		public Table where(String column, long min, long max){
+			long[] filter = column(column);
+			int count = 0;
+			for(int r=0; r<rows; r++){
+				if(filter[r] >= min && filter[r] <= max){
+					count++;
+				}
+			}
+			Table table = new Table(columns, count);
+			int row = 0;
+			for(int r=0; r<rows; r++){
+				if(filter[r] >= min && filter[r] <= max){
+					for(int c=0; c<columns.length; c++){
+						table.values[c][row] = values[c][r];
+					}
+					row++;
+				}
+			}
+			return table;
+		}
+
+		/**
+		 * @return the runs with the column equal to the value
+		 */
+		public Table where(String column, long value){
+			return where(column, value, value);
+		}
+
+		/**
+		 * @return the runs grouped by the values of the columns, sorted
+		 */
+		public Map<List<Long>, Table> groupBy(String... by){
+			int[] keys = new int[by.length];
+			for(int k=0; k<by.length; k++){
+				keys[k] = indexOf(by[k]);
+			}
+			Map<List<Long>, List<Integer>> groups = new TreeMap<>(new java.util.Comparator<List<Long>>(){
+				public int compare(List<Long> a, List<Long> b){
+					for(int k=0; k<a.size(); k++){
+						int c = Long.compare(a.get(k), b.get(k));
+						if(c != 0){
+							return c;
+						}
+					}
+					return 0;
+				}
+			});
+			for(int r=0; r<rows; r++){
+				List<Long> key = new ArrayList<>(by.length);
+				for(int k : keys){
+					key.add(values[k][r]);
+				}
+				List<Integer> group = groups.get(key);
+				if(group == null){
+					group = new ArrayList<>();
+					groups.put(key, group);
+				}
+				group.add(r);
+			}
+			Map<List<Long>, Table> tables = new LinkedHashMap<>();
+			for(Map.Entry<List<Long>, List<Integer>> group : groups.entrySet()){
+				Table table = new Table(columns, group.getValue().size());
+				int row = 0;
+				for(int r : group.getValue()){
+					for(int c=0; c<columns.length; c++){
+						table.values[c][row] = values[c][r];
+					}
+					row++;
+				}
+				tables.put(group.getKey(), table);
+			}
+			return tables;
+		}
+
+		public double mean(String column){
+			long[] values = column(column);
+			double sum = 0;
+			for(int r=0; r<rows; r++){
+				sum += values[r];
+			}
+			return rows == 0 ? 0 : sum/rows;
+		}
+
+		public double sd(String column){
+			if(rows < 2){
+				return 0;
+			}
+			long[] values = column(column);
+			double mean = mean(column);
+			double sum = 0;
+			for(int r=0; r<rows; r++){
+				sum += (values[r] - mean)*(values[r] - mean);
+			}
+			return Math.sqrt(sum/(rows - 1));
+		}
+
+		/**
+		 * Mean and standard deviation of the metrics, one line per group.
+		 */
+		public String summary(String[] by, String[] metrics){
+			StringBuilder table = new StringBuilder();
+			for(String column : by){
+				table.append(column).append('\t');
+			}
+			table.append("runs");
+			for(String metric : metrics){
+				table.append('\t').append(metric).append("\tsd");
+			}
+			table.append('\n');
+			for(Map.Entry<List<Long>, Table> group : groupBy(by).entrySet()){
+				for(long key : group.getKey()){
+					table.append(key).append('\t');
+				}
+				table.append(group.getValue().rows);
+				for(String metric : metrics){
+					table.append(String.format("\t%.1f\t%.1f", group.getValue().mean(metric), group.getValue().sd(metric)));
+				}
+				table.append('\n');
+			}
+			return table.toString();
+		}
+	}
+
+	/**
+	 * Append the text files written by the runs before the store, one per
+	 * run in the folders of the given directory, to the study. The time of a
+	 * run is the name of its file, the parameters missing from the file are
+	 * taken from the name of the folder. Seed and steps were not written,
+	 * they are -1.
+	 * @return the number of runs imported
+	 */
+	public int importResults(File dir) throws IOException{
+		int imported = 0;
+		File[] folders = dir.listFiles();
+		if(folders == null){
+			return 0;
+		}
+		Arrays.sort(folders);
+		for(File folder : folders){
+			File[] files = folder.listFiles();
+			if(files == null){
+				continue;
+			}
+			//older runs only have their parameters in the name of the folder
+			Map<String, Long> parameters = new LinkedHashMap<>();
+			String[] parts = folder.getName().split("_");
+			for(int p=0; p+1<parts.length; p+=2){
+				try{
+					parameters.put(parts[p], Long.parseLong(parts[p+1]));
+				} catch(NumberFormatException e){
+					//not a parameter
+				}
+			}
+			Arrays.sort(files);
+			for(File file : files){
+				String name = file.getName();
+				if(!name.endsWith(".txt")){
+					continue;
+				}
+				Map<String, Long> values = new LinkedHashMap<>();
+				try(BufferedReader reader = new BufferedReader(new FileReader(file))){
+					String line;
+					while((line = reader.readLine()) != null){
+						int colon = line.indexOf(':');
+						if(colon > 0){
+							values.put(line.substring(0, colon).trim(), Long.parseLong(line.substring(colon + 1).trim()));
+						}
+					}
+				} catch(NumberFormatException e){
+					System.err.println("Skipped " + file + ": " + e.getMessage());
+					continue;
+				}
+				long time;
+				try{
+					time = Long.parseLong(name.substring(0, name.length() - 4));
+				} catch(NumberFormatException e){
+					time = file.lastModified();
+				}
+				append(new long[]{
+						time,
+						-1,
+						get(values, "Total cells"),
+						get(values, "Number of fires", parameters.get("fires")),
+						get(values, "Number of UAVs", parameters.get("uavs")),
+						get(values, "Communication range", parameters.get("range")),
+						-1,
+						1,
+						get(values, "Cells recovered"),
+						get(values, "Cells burned"),
+						get(values, "Cells water"),
+						get(values, "Cells not touched")});
+				imported++;
+			}
+		}
+		flush();
+		return imported;
+	}
+
+	private static long get(Map<String, Long> values, String key){
+		return get(values, key, null);
+	}
+
+	private static long get(Map<String, Long> values, String key, Long otherwise){
+		Long value = values.get(key);
+		if(value == null){
+			value = otherwise;
+		}
+		return value == null ? -1 : value;
+	}
+
+	public static void main(String[] args) throws IOException{
+		String study = System.getProperty("user.dir") + "/results/runs";
+		String imported = null;
+		String[] by = {"fires", "uavs", "range"};
+		for(int i=0; i+1<args.length; i+=2){
+			String value = args[i+1];
+			switch(args[i]){
+			case "-study": study = value; break;
+			case "-import": imported = value; break;
+			case "-by": by = value.split(","); break;
+			default:
+				System.err.println("Unknown option " + args[i]);
+				System.exit(1);
+			}
+		}
+
+		ResultsStore store = new ResultsStore(study);
+		if(imported != null){
+			System.out.println("Imported " + store.importResults(new File(imported)) + " runs from " + imported);
+		}
+		long start = System.nanoTime();
+		Table table = store.load();
+		System.out.print(table.summary(by, new String[]{"recovered", "burned"}));
+		System.out.println(table.rows + " runs loaded in " + (System.nanoTime() - start)/1000000 + " ms");
+	}
+}
@@ -0,0 +1,168 @@
+package sim.app.firecontrol;
+
+import java.util.HashMap;
+
+import sim.engine.SimState;
+import sim.engine.Steppable;
+
+/**
+ * A branch of a running simulation, to see ahead of time what the fire does
+ * with a given assignment of the UAVs (see Ignite.fork).
+ * The branch forks the forest and the frontier of the fire: it only pays for
+ * the tiles it changes (see Forest.fork). The tasks are shared and only read.
+ * Every UAV is a light copy of its position and task, that can be assigned
+ * to another task in this branch only.
+ *
+ * In a branch the UAVs fly to the closest fire of their task and extinguish
+ * it, there is no communication nor allocation. The fire draws the random
+ * numbers of the next steps of the simulation, the same in all the branches
+ * of the same state, so that they only differ by the assignment of the UAVs. Branches are run in parallel by
+ * Ignite.rollout, every branch on a single thread.
+ */
+public class Rollout implements Steppable{
+	private static final long serialVersionUID = 1L;
+
+	//cells around a task where its UAVs look for fires
+	static final int MARGIN = 2*CoveragePlanner.MARGIN;
+
+	private Ignite branch;
+	private Drone[] drones;
+	private double linearvelocity;
+	private int stepToExtinguish;
+	int horizon;
+
+	//the outcome at the end of the horizon, in cells
+	public int fire;
+	public int burned;
+	public int extinguished;
+
+	Rollout(Ignite ignite){
+		branch = new Ignite(ignite.seed());
+		branch.width = ignite.width;
+		branch.height = ignite.height;
+		branch.forest = ignite.forest.fork();
+		//the branch goes on from the current step of the simulation
+		branch.front = ignite.front.fork(ignite.schedule.getSteps());
+		branch.extinguishing = new HashMap<>();
+		branch.cellsOnFire = ignite.cellsOnFire;
+		branch.cellsBurned = ignite.cellsBurned;
+		linearvelocity = ignite.linearvelocity;
+		stepToExtinguish = ignite.stepToExtinguish;
+
+		drones = new Drone[ignite.UAVs.size()];
+		for(UAV uav : ignite.UAVs){
+			drones[uav.id] = new Drone(uav.x, uav.y, uav.myTask);
+		}
+		branch.schedule.scheduleRepeating(new Fleet(), 1, 1);
+		branch.schedule.scheduleRepeating(branch.front, 2, 1);
+	}
+
+	/**
+	 * Assign the UAV to the task in this branch, null for no task.
+	 */
+	public void assign(UAV uav, Task task){
+		drones[uav.id] = new Drone(drones[uav.id].x, drones[uav.id].y, task);
+	}
+
+	/**
+	 * @return the cells burned or still burning at the end, the lower the better
+	 */
+	public int score(){
+		return fire + burned;
+	}
+
+	@Override
+	public void step(SimState state){
+		for(int h=0; h<horizon; h++){
+			branch.schedule.step(branch);
+		}
+		Forest forest = branch.forest;
+		fire = forest.count(CellType.FIRE);
+		burned = forest.count(CellType.BURNED);
+		extinguished = forest.count(CellType.EXTINGUISHED);
+	}
+
+	/**
+	 * The copy of a UAV: both axes advance of linearvelocity per step, as
+	 * for the UAVs of the simulation.
+	 */
+	static class Drone{
+		double x, y;
+		Task task;
+		//fire the drone is going to, -1 if none
+		int target = -1;
+		//steps spent over the target
+		int extinguishing;
+
+		Drone(double x, double y, Task task){
+			this.x = x;
+			this.y = y;
+			this.task = task;
+		}
+	}
+
+	/**
+	 * The drones of the branch, stepped before the fire.
+	 */
+	class Fleet implements Steppable{
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		public void step(SimState state){
+			Forest forest = branch.forest;
+			for(Drone drone : drones){
+				if(drone.task == null){
+					continue;
+				}
+				if(drone.target >= 0 && !forest.getType(drone.target).equals(CellType.FIRE)){
+					drone.target = -1;
+					drone.extinguishing = 0;
+				}
+				if(drone.target < 0){
+					drone.target = closestFire(forest, drone);
+					if(drone.target < 0){
+						continue;
+					}
+				}
+				int tx = forest.x(drone.target);
+				int ty = forest.y(drone.target);
+				drone.x = along(drone.x, tx, linearvelocity);
+				drone.y = along(drone.y, ty, linearvelocity);
+				if(drone.x == tx && drone.y == ty && ++drone.extinguishing >= stepToExtinguish){
+					forest.setType(drone.target, CellType.EXTINGUISHED);
+					forest.setStatus(drone.target, 1);
+					branch.cellsOnFire--;
+					branch.front.notifyTypeChanged(branch, drone.target);
+					drone.target = -1;
+					drone.extinguishing = 0;
+				}
+			}
+		}
+
+		//closest fire around the task, -1 if none
+		private int closestFire(Forest forest, Drone drone){
+			Task task = drone.task;
+			int reach = (int)Math.ceil(task.radius) + MARGIN;
+			int best = -1;
+			double bestDistance = Double.MAX_VALUE;
+			for(int x=Math.max(0, task.centroid.x - reach); x<=Math.min(forest.width - 1, task.centroid.x + reach); x++){
+				for(int y=Math.max(0, task.centroid.y - reach); y<=Math.min(forest.height - 1, task.centroid.y + reach); y++){
+					if(forest.getType(x, y) == CellType.FIRE){
+						double d = Math.max(Math.abs(x - drone.x), Math.abs(y - drone.y));
+						if(d < bestDistance){
+							bestDistance = d;
+							best = forest.index(x, y);
+						}
+					}
+				}
+			}
+			return best;
+		}
+	}
+
+	private static double along(double from, double to, double moved){
+		if(moved >= Math.abs(to - from))
+			return to;
+		return to > from ? from + moved : from - moved;
+	}
+}
@@ -0,0 +1,208 @@
+package sim.app.firecontrol;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ConcurrentHashMap;
+
+import sim.util.TableLoader;
+
+/**
+ * A map of real terrain, given as rasters of the same size:
+ * - water, cells with a value other than 0 are part of a lake or a river
+ * - fuel, multiplier of the spread of the fire (see WindSlopeKernel)
+ * - elevation, height of the cells
+ * - windX, windY, the wind over the cells
+ * - ignitions, cells with a value other than 0 are on fire at the beginning
+ * Every layer is optional: the missing water and ignitions are generated as
+ * usual, the missing terrain layers are neutral.
+ *
+ * Raw PGM files are mapped in memory (see MappedRaster), the other formats
+ * supported by TableLoader (plain PNM, PNG, GIF and text) are read in an
+ * array. Either way a file is read only once and the raster is shared by all
+ * the runs in the JVM, as long as the file is not modified.
+ */
+public class Scenario implements java.io.Serializable{
+	private static final long serialVersionUID = 1L;
+
+	//layers already loaded, by path
+	private static final ConcurrentHashMap<String, Cached> CACHE = new ConcurrentHashMap<>();
+
+	public String water;
+	public String fuel;
+	public String elevation;
+	public String windX;
+	public String windY;
+	public String ignitions;
+	public double fuelScale = 1; //e.g. 1/255. to read fuel from an 8 bit image
+	public double elevationScale = 1;
+	public double windScale = 1;
+
+	/**
+	 * Build the scenario of a directory, whose layers are the files named
+	 * water, fuel, elevation, windx, windy and ignitions (any extension).
+	 */
+	public static Scenario fromDirectory(String directory) throws IOException{
+		File dir = new File(directory);
+		File[] files = dir.listFiles();
+		if(files == null){
+			throw new IOException("Not a scenario directory: " + directory);
+		}
+		Scenario scenario = new Scenario();
+		for(File file : files){
+			String name = file.getName().toLowerCase();
+			int dot = name.lastIndexOf('.');
+			String layer = dot < 0 ? name : name.substring(0, dot);
+			String path = file.getPath();
+			switch(layer){
+			case "water": scenario.water = path; break;
+			case "fuel": scenario.fuel = path; break;
+			case "elevation": scenario.elevation = path; break;
+			case "windx": scenario.windX = path; break;
+			case "windy": scenario.windY = path; break;
+			case "ignitions": scenario.ignitions = path; break;
+			default:
+			}
+		}
+		return scenario;
+	}
+
+	/**
+	 * Load the layers and set the size of the forest and the layers of the
+	 * terrain of the simulation. Call it before the forest is built.
+	 */
+	public void load(Ignite ignite) throws IOException{
+		int width = -1;
+		int height = -1;
+		for(String path : new String[]{water, fuel, elevation, windX, windY, ignitions}){
+			if(path != null){
+				Raster raster = load(path);
+				if(width == -1){
+					width = raster.getWidth();
+					height = raster.getHeight();
+				} else if(raster.getWidth() != width || raster.getHeight() != height){
+					throw new IOException("Layer " + path + " is " + raster.getWidth() + "x" + raster.getHeight() +
+							", expected " + width + "x" + height);
+				}
+			}
+		}
+		if(width != -1){
+			ignite.width = width;
+			ignite.height = height;
+		}
+		if(fuel != null)
+			ignite.fuel = Raster.scaled(load(fuel), fuelScale);
+		if(elevation != null)
+			ignite.elevation = Raster.scaled(load(elevation), elevationScale);
+		if(windX != null)
+			ignite.windX = Raster.scaled(load(windX), windScale);
+		if(windY != null)
+			ignite.windY = Raster.scaled(load(windY), windScale);
+		//the isotropic model ignores the terrain
+		if((fuel != null || elevation != null || windX != null) && ignite.kernel instanceof IsotropicKernel){
+			ignite.kernel = new WindSlopeKernel();
+		}
+	}
+
+	/**
+	 * Set the water of the forest.
+	 * @return false if there is no water layer
+	 */
+	public boolean placeWater(Ignite ignite){
+		if(water == null){
+			return false;
+		}
+		Raster raster = layer(water);
+		//row by row, in the order of the samples of the raster
+		for(int y=0; y<ignite.height; y++){
+			for(int x=0; x<ignite.width; x++){
+				if(raster.get(x, y) != 0){
+					ignite.forest.setType(x, y, CellType.WATER);
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Set the fires of the forest, every connected group of ignitions is a task.
+	 * ignite.fires is left as it is, it only applies to the random worlds.
+	 * @return false if there is no ignitions layer
+	 */
+	public boolean placeFires(Ignite ignite){
+		if(ignitions == null){
+			return false;
+		}
+		Raster raster = layer(ignitions);
+		Forest forest = ignite.forest;
+		for(int y=0; y<ignite.height; y++){
+			for(int x=0; x<ignite.width; x++){
+				if(raster.get(x, y) != 0 && forest.getType(x, y).equals(CellType.NORMAL)){
+					forest.setType(x, y, CellType.FIRE);
+					ignite.cellsOnFire++;
+				}
+			}
+		}
+
+		ignite.groupFires();
+		return true;
+	}
+
+	/**
+	 * @return the raster of the file, read only once per JVM
+	 */
+	public static Raster load(String path) throws IOException{
+		File file = new File(path).getCanonicalFile();
+		String key = file.getPath();
+		Cached cached = CACHE.get(key);
+		if(cached == null || cached.modified != file.lastModified() || cached.length != file.length()){
+			synchronized(CACHE){
+				cached = CACHE.get(key);
+				if(cached == null || cached.modified != file.lastModified() || cached.length != file.length()){
+					cached = new Cached(read(file), file.lastModified(), file.length());
+					CACHE.put(key, cached);
+				}
+			}
+		}
+		return cached.raster;
+	}
+
+	//layers are already in the cache once the scenario has been loaded
+	private static Raster layer(String path){
+		try{
+			return load(path);
+		} catch(IOException e){
+			throw new RuntimeException("Cannot read the layer " + path, e);
+		}
+	}
+
+	private static Raster read(File file) throws IOException{
+		String name = file.getName().toLowerCase();
+		if(MappedRaster.isRawPGM(file.getPath())){
+			return new MappedRaster(file.getPath());
+		}
+		try(InputStream stream = new FileInputStream(file)){
+			if(name.endsWith(".png")){
+				return Raster.of(TableLoader.loadPNGFile(stream));
+			} else if(name.endsWith(".gif")){
+				return Raster.of(TableLoader.loadGIFFile(stream));
+			} else if(name.endsWith(".pbm") || name.endsWith(".pgm") || name.endsWith(".pnm")){
+				return Raster.of(TableLoader.loadPNMFile(stream));
+			}
+			return Raster.of(TableLoader.loadTextFile(stream));
+		}
+	}
+
+	private static class Cached{
+		final Raster raster;
+		final long modified;
+		final long length;
+
+		Cached(Raster raster, long modified, long length){
+			this.raster = raster;
+			this.modified = modified;
+			this.length = length;
+		}
+	}
+}
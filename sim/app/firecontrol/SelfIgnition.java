@@ -0,0 +1,102 @@
+package sim.app.firecontrol;
+
+import ec.util.MersenneTwisterFast;
+import sim.engine.SimState;
+import sim.engine.Steppable;
+import sim.util.Int2D;
+
+/**
+ * Cells of the forest taking fire by themselves.
+ * Every INTERVAL steps every normal cell takes fire with probability
+ * 1-selfIgniteThreshold, up to selfIgniteMax cells in the whole run. Instead
+ * of drawing a number for every cell at every check, the trials (a cell at a
+ * check) are seen as a single sequence and the number of failures before the
+ * next ignition is drawn from the geometric distribution. Only the next
+ * ignition is known at any time, and it is scheduled as a one-shot event:
+ * the forest is never scanned.
+ *
+ * A trial on a cell that is not normal fails, so every normal cell still
+ * takes fire with the same probability at every check.
+ */
+public class SelfIgnition implements Steppable{
+	private static final long serialVersionUID = 1L;
+
+	//steps between two checks
+	static final int INTERVAL = 500;
+	//after the FireFront and before the FireController
+	static final int ORDERING = 3;
+
+	private MersenneTwisterFast random;
+	//log of the probability of a failure
+	private double logFailure;
+	//cells that can still take fire by themselves
+	private int left;
+	//next trial that succeeds, counted over all the checks
+	private long trial = -1;
+
+	public SelfIgnition(Ignite ignite){
+		this.random = new MersenneTwisterFast(ignite.random.nextLong());
+		this.logFailure = Math.log(ignite.selfIgniteThreshold);
+		this.left = ignite.selfIgniteMax;
+	}
+
+	/**
+	 * Schedule the first ignition, if any.
+	 */
+	public void start(Ignite ignite){
+		if(left > 0 && draw()){
+			schedule(ignite);
+		}
+	}
+
+	@Override
+	public void step(SimState state){
+		Ignite ignite = (Ignite) state;
+		Forest forest = ignite.forest;
+		long check = trial/forest.size();
+		//all the ignitions of this check are done in the same event
+		while(left > 0 && trial/forest.size() == check){
+			int index = (int)(trial%forest.size());
+			if(forest.isCell(index) && forest.getType(index).equals(CellType.NORMAL)){
+				ignite.front.ignite(ignite, index);
+				left--;
+				//generate a new task
+				Task t = new Task(ignite.tasks.size()+1, new Int2D(forest.x(index), forest.y(index)), 0);
+				ignite.clusters.create(t, index);
+				ignite.tasks.add(t);
+				t.selectManager(ignite);
+			}
+			if(!draw()){
+				return;
+			}
+		}
+		schedule(ignite);
+	}
+
+	//move to the next trial that succeeds, false if there is none
+	private boolean draw(){
+		if(logFailure >= 0){
+			//threshold 1, no cell takes fire
+			return false;
+		}
+		//number of failures before the next success, 0 if every trial succeeds
+		double failures = Double.isInfinite(logFailure) ? 0 : Math.floor(Math.log(1 - random.nextDouble())/logFailure);
+		if(failures >= Long.MAX_VALUE - trial - 1){
+			return false;
+		}
+		trial += (long)failures + 1;
+		return true;
+	}
+
+	//the check of the next trial, the first one is done at INTERVAL
+	private void schedule(Ignite ignite){
+		if(left <= 0){
+			return;
+		}
+		long check = trial/ignite.forest.size();
+		if(check >= Long.MAX_VALUE/INTERVAL - 1){
+			return;
+		}
+		ignite.schedule.scheduleOnce((check + 1)*INTERVAL, ORDERING, this);
+	}
+}
@@ -0,0 +1,71 @@
+package sim.app.firecontrol;
+
+/**
+ * How fast the fire consumes a burning cell and spreads to its neighbors.
+ * The gaussian terms of the model only depend on a uniform random number,
+ * so they are tabulated once (with linear interpolation between the entries)
+ * instead of calling Math.exp for every active cell at every step.
+ *
+ * The neighbors of a cell are numbered 0..7 as in DX and DY; the burning
+ * neighbors of a normal cell are passed to spread() as a bit mask.
+ * The tables are not part of a checkpoint, they are prepared again when the
+ * simulation is restored.
+ *
+ * @see FireFront
+ */
+public abstract class SpreadKernel implements java.io.Serializable{
+	private static final long serialVersionUID = 1L;
+
+	//offsets of the 8 neighbors
+	static final int[] DX = {-1, -1, -1, 0, 0, 1, 1, 1};
+	static final int[] DY = {-1, 0, 1, -1, 1, -1, 0, 1};
+
+	//entries of the tables over [0,1]
+	static final int RESOLUTION = 4096;
+
+	//status lost by a burning cell, per unit of status
+	private transient double[] burn;
+	//status lost by a normal cell close to a fire
+	private transient double[] spread;
+
+	/**
+	 * Build the tables from the params of the simulation.
+	 * Called by the FireFront every time it is rebuilt.
+	 */
+	public void prepare(Ignite ignite){
+		burn = new double[RESOLUTION+1];
+		spread = new double[RESOLUTION+1];
+		for(int i=0; i<=RESOLUTION; i++){
+			double r = (double)i/RESOLUTION;
+			burn[i] = ignite.fireStatusMultiplier*ignite.gaussianPDF(0, r, 0.2);
+			spread[i] = ignite.normalStatusMultiplier*ignite.gaussianPDF(0, 2*r, 0.2);
+		}
+	}
+
+	/**
+	 * @return the status lost at this step by a burning cell
+	 */
+	public double burn(float status, double random){
+		return status*lookup(burn, random);
+	}
+
+	/**
+	 * @return the status lost at this step by a normal cell at x,y
+	 * whose burning neighbors are given by the mask (never 0)
+	 */
+	public abstract double spread(Forest forest, int x, int y, int burning, double random);
+
+	//status lost by a normal cell next to a fire, without any anisotropy
+	protected double isotropic(double random){
+		return lookup(spread, random);
+	}
+
+	static double lookup(double[] table, double x){
+		double q = x*RESOLUTION;
+		int i = (int)q;
+		if(i >= RESOLUTION){
+			return table[RESOLUTION];
+		}
+		return table[i] + (table[i+1] - table[i])*(q - i);
+	}
+}
@@ -0,0 +1,128 @@
+package sim.app.firecontrol;
+
+import sim.engine.ParallelSequence;
+import sim.engine.SimState;
+import sim.engine.Steppable;
+
+/**
+ * The UAVs of the simulation, stepped together in three phases:
+ * - sense, every UAV catches up with its motion and reads the cell below
+ * - decide, every UAV selects its next action and updates its own state. The
+ *   offers go to the concurrent inbox of the TaskAllocator, anything else
+ *   shared by the UAVs is left to the commit
+ * - commit, the shared actions are applied in the order of the ids: the cells
+ *   claimed on the CoveragePlanner, the fires extinguished, the positions in
+ *   air and the next step of every UAV
+ * Sense and decide only read the state shared by the UAVs: the UAVs are split
+ * in groups and every group runs on its own ParallelSequence worker, with a
+ * barrier between the phases. As the commit of the FireFront, the commit is
+ * done in order, so the result is the same for any number of threads.
+ *
+ * In event driven mode only the UAVs whose next event is due are stepped.
+ */
+public class Swarm implements Steppable{
+	private static final long serialVersionUID = 1L;
+
+	static final int SENSE = 0;
+	static final int DECIDE = 1;
+
+	//all the UAVs, in the order of the ids
+	private UAV[] uavs;
+	//UAVs stepped at this step, in the order of the ids
+	private UAV[] due;
+	private int dueCount;
+	private int phase;
+	private Group[] groups;
+	private ParallelSequence workers;
+
+	/**
+	 * Collect the UAVs of the simulation.
+	 * Call it once the UAVs have been created.
+	 */
+	public void rebuild(Ignite ignite){
+		cleanup();
+		//UAVs are created in the order of the ids
+		uavs = ignite.UAVs.toArray(new UAV[0]);
+		due = new UAV[uavs.length];
+		int threads = Math.max(1, Math.min(ignite.uavThreads, uavs.length));
+		groups = new Group[threads];
+		for(int g=0; g<threads; g++){
+			groups[g] = new Group(g, threads);
+		}
+		if(threads > 1){
+			workers = new ParallelSequence(groups, threads);
+		}
+	}
+
+	/**
+	 * Stop the threads of the workers, if any.
+	 */
+	public void cleanup(){
+		if(workers != null){
+			workers.cleanup();
+			workers = null;
+		}
+	}
+
+	@Override
+	public void step(SimState state){
+		Ignite ignite = (Ignite) state;
+		long now = ignite.schedule.getSteps();
+
+		dueCount = 0;
+		for(UAV uav : uavs){
+			if(!ignite.eventDriven || uav.wakeAt <= now){
+				due[dueCount++] = uav;
+			}
+		}
+		if(dueCount == 0){
+			return;
+		}
+
+		phase = SENSE;
+		run(state);
+		phase = DECIDE;
+		run(state);
+		for(int i=0; i<dueCount; i++){
+			due[i].commit(ignite);
+		}
+	}
+
+	//run the current phase over all the groups, and wait for them
+	private void run(SimState state){
+		if(workers != null){
+			workers.step(state);
+		} else {
+			groups[0].step(state);
+		}
+	}
+
+	/**
+	 * A contiguous share of the UAVs due at this step.
+	 */
+	class Group implements Steppable{
+		private static final long serialVersionUID = 1L;
+
+		private int group;
+		private int groupCount;
+
+		Group(int group, int groupCount){
+			this.group = group;
+			this.groupCount = groupCount;
+		}
+
+		@Override
+		public void step(SimState state){
+			Ignite ignite = (Ignite) state;
+			int from = dueCount*group/groupCount;
+			int to = dueCount*(group+1)/groupCount;
+			for(int i=from; i<to; i++){
+				if(phase == SENSE){
+					due[i].sense(ignite);
+				} else {
+					due[i].decide(ignite);
+				}
+			}
+		}
+	}
+}
@@ -1,6 +1,10 @@
 package sim.app.firecontrol;
 
-import java.util.LinkedList;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.LinkedHashSet;
+import java.util.TreeMap;
 
 import sim.util.Int2D;
 
@@ -13,76 +17,121 @@ import sim.util.Int2D;
  * @email albani@dis.uniroma1.it
  *
  */
-public class Task{
+public class Task implements java.io.Serializable{
+	private static final long serialVersionUID = 1L;
+
 	public int id;
 	public Int2D centroid;
 	public double radius; //the utility?
 	public int utility;
 	public int UAVassigned;
-	public LinkedList<WorldCell> cells;
+	//written as indices of the forest in a checkpoint, not as WorldCells
+	public transient LinkedHashSet<WorldCell> cells;
 	public UAV manager;
+	//changes at every update of the cells
+	public int version;
+	//next cells to visit for the UAVs of the task
+	public CoveragePlanner planner;
+	//size of the team found by the forks, and when (see TaskAllocator)
+	public int teamSize;
+	public long teamSizedAt = -1;
 
-	public static int height = 60; //size of the forest
-	public static int width = 60; //size of the forest
+	//geometry of the cells, kept up to date at every add and remove:
+	//the sums of the coordinates give the centroid, the ordered coordinates
+	//(with their multiplicity) give the extent of the fire around it
+	private long sumX;
+	private long sumY;
+	private TreeMap<Integer, Integer> xs = new TreeMap<>();
+	private TreeMap<Integer, Integer> ys = new TreeMap<>();
 
 	public Task(int id, Int2D centroid, int initialRadius){
 		this.id = id;
 		this.centroid = centroid;
 		this.radius = initialRadius;
-		this.cells = new LinkedList<>();
+		this.cells = new LinkedHashSet<>();
 		this.UAVassigned = 1; // Consider the manager as the first one
+		this.planner = new CoveragePlanner(this);
 	}
 
 	public void addCell(WorldCell cell){
-		this.cells.add(cell);
+		notifyNewFire(cell);
 	}
 
 	/*
 	 * Used to keep the information about the task up to date.
-	 * When a new fire is created, the cell calls  this function to let the
-	 * task recompute its radius.
+	 * When a new fire joins the cluster of this task, the FireClusters calls
+	 * this function to let the task recompute its centroid and radius.
 	 *
 	 * @return true, if the update succeeds and the cell is added
+	 * @see FireClusters
 	 */
 	public boolean notifyNewFire(WorldCell cell){
-		for(WorldCell wc : this.cells){
-			if(cell.isNeighborOf(wc)){
-				this.cells.add(cell);
-				//now update the radius
-				Int2D cellPos = new Int2D(cell.x, cell.y);
-				this.radius = Math.max(cellPos.distance(this.centroid), this.radius);
-				this.utility = this.cells.size();
-				return true;
-			}
+		if(this.cells.add(cell)){
+			sumX += cell.x;
+			sumY += cell.y;
+			xs.merge(cell.x, 1, Integer::sum);
+			ys.merge(cell.y, 1, Integer::sum);
+			updateGeometry();
+			return true;
 		}
 		return false;
 	}
 
 	/*
 	 * Used to keep the information about the task up to date.
-	 * When a new fire is created, the cell calls  this function to let the
-	 * task recompute its radius.
+	 * When a fire is extinguished, the cell calls this function to let the
+	 * task recompute its centroid and radius.
 	 *
-	 * @return true, if the update succeeds and the cell is added
+	 * @return true, if the update succeeds and the cell is removed
 	 */
 	public boolean notifyExtinguishedFire(WorldCell cell) {
 		if(this.cells.remove(cell)){
-			this.utility = this.cells.size();
-			Int2D pos = new Int2D(cell.x, cell.y);
-			//if it was a border cell
-			if(radius == pos.distance(centroid)){
-				//update the radius
-				radius = 0;
-				for(WorldCell wc : this.cells){
-					pos = new Int2D(wc.x, wc.y);
-					this.radius = Math.max(pos.distance(centroid), radius);
-				}
-			}
+			sumX -= cell.x;
+			sumY -= cell.y;
+			remove(xs, cell.x);
+			remove(ys, cell.y);
+			updateGeometry();
 			return true;
 		}
 		return false;
 	}
 
+	/*
+	 * The centroid is the mean position of the cells, the radius is the
+	 * largest extent of the cells from the centroid along the axes.
+	 * Both cost O(log n) and follow the fire as it grows or is extinguished.
+	 */
+	private void updateGeometry(){
+		int n = this.cells.size();
+		this.version++;
+		this.utility = n;
+		if(n == 0){
+			this.radius = 0;
+			return;
+		}
+		int cx = (int)Math.round((double)sumX/n);
+		int cy = (int)Math.round((double)sumY/n);
+		if(cx != centroid.x || cy != centroid.y){
+			this.centroid = new Int2D(cx, cy);
+		}
+		this.radius = Math.max(
+				Math.max(cx - xs.firstKey(), xs.lastKey() - cx),
+				Math.max(cy - ys.firstKey(), ys.lastKey() - cy));
+	}
+
+	/**
+	 * @return true if all the fires of the task have been extinguished
+	 */
+	public boolean isDone(){
+		return this.cells.isEmpty();
+	}
+
+	private static void remove(TreeMap<Integer, Integer> values, int value){
+		if(values.merge(value, -1, Integer::sum) == 0){
+			values.remove(value);
+		}
+	}
+
 	// Assign manager to the task
 	public void selectManager(Ignite ignite){
 		double bestDistance = 1000000; // Big number as inicial
@@ -98,9 +147,33 @@ public class Task{
 		}
 	}
 
-	@Override
-	public boolean equals(Object obj){
-		Task task = (Task) obj;
-		return task.centroid == this.centroid;
+	private void writeObject(ObjectOutputStream out) throws IOException{
+		out.defaultWriteObject();
+		out.writeInt(cells.size());
+		if(cells.isEmpty()){
+			return;
+		}
+		Forest forest = cells.iterator().next().forest;
+		out.writeObject(forest);
+		Checkpoint.Output blocks = new Checkpoint.Output(out);
+		for(WorldCell cell : cells){
+			blocks.writeInt(forest.index(cell.x, cell.y));
+		}
+		blocks.close();
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException{
+		in.defaultReadObject();
+		int count = in.readInt();
+		cells = new LinkedHashSet<>();
+		if(count == 0){
+			return;
+		}
+		Forest forest = (Forest) in.readObject();
+		Checkpoint.Input blocks = new Checkpoint.Input(in);
+		for(int i=0; i<count; i++){
+			cells.add(forest.getCell(blocks.readInt()));
+		}
+		blocks.close();
 	}
 }
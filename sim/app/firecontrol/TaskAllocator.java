@@ -0,0 +1,188 @@
+package sim.app.firecontrol;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import sim.engine.SimState;
+import sim.engine.Steppable;
+import sim.util.Double3D;
+import sim.util.IntBag;
+
+/**
+ * Assignment of the UAVs to the tasks.
+ * The UAVs that received a request for bid send their offers to the
+ * allocator, at any time of the step and from any thread. Once per step all
+ * the offers are collected and the tasks are cleared together by the
+ * strategy implemented by the subclass.
+ *
+ * @see GreedyAllocator
+ * @see AuctionAllocator
+ */
+public abstract class TaskAllocator implements Steppable{
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The offer of a UAV for a task.
+	 */
+	public static class Bid implements java.io.Serializable{
+		private static final long serialVersionUID = 1L;
+
+		public UAV bidder;
+		public Task task;
+		public double offer;
+
+		public Bid(UAV bidder, Task task, double offer){
+			this.bidder = bidder;
+			this.task = task;
+			this.offer = offer;
+		}
+	}
+
+	//the order of the offers of a single bidder is kept by the sort
+	private static final Comparator<Bid> BY_BIDDER = new Comparator<Bid>(){
+		public int compare(Bid a, Bid b){
+			return Integer.compare(a.bidder.id, b.bidder.id);
+		}
+	};
+
+	//offers received since the last step
+	private ConcurrentLinkedQueue<Bid> inbox = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * Send an offer for a task, an offer of 0 is a refusal.
+	 * Safe to call concurrently.
+	 */
+	public void propose(UAV bidder, Task task, double offer){
+		inbox.add(new Bid(bidder, task, offer));
+	}
+
+	/**
+	 * Drop the offers and the state of a previous run.
+	 */
+	public void reset(){
+		inbox.clear();
+	}
+
+	@Override
+	public void step(SimState state){
+		List<Bid> bids = new ArrayList<>();
+		Bid bid;
+		while((bid = inbox.poll()) != null){
+			bids.add(bid);
+		}
+		//whatever the thread that sent them, in the order of the bidders
+		Collections.sort(bids, BY_BIDDER);
+		allocate((Ignite) state, bids);
+	}
+
+	/**
+	 * Assign the UAVs to the tasks given the offers received in the last step.
+	 */
+	protected abstract void allocate(Ignite ignite, List<Bid> bids);
+
+	/**
+	 * @return the number of cells on fire over all the tasks still alive
+	 */
+	protected static int totalFire(Ignite ignite){
+		int totalFire = 0;
+		for(Task task : ignite.tasks){
+			if(!task.isDone())
+				totalFire += task.utility;
+		}
+		return totalFire;
+	}
+
+	/**
+	 * @return the number of UAVs a task needs, proportional to its share of the
+	 * fire or, with a rollout horizon, the best size tried on forks
+	 */
+	protected static int uavNeeded(Ignite ignite, Task task, int totalFire){
+		int share = ignite.numUAVs * task.utility / totalFire;
+		if(ignite.rolloutHorizon <= 0){
+			return share;
+		}
+		return teamSize(ignite, task, share);
+	}
+
+	/**
+	 * Try half, the same and twice the share of the fire on forks of the
+	 * simulation (see Rollout), and keep the size with the least cells lost.
+	 * The UAVs already on the task stay, the closest free UAVs join it.
+	 * The size is kept for rolloutHorizon steps.
+	 */
+	private static int teamSize(Ignite ignite, Task task, int share){
+		long now = ignite.schedule.getSteps();
+		if(task.teamSizedAt >= 0 && now - task.teamSizedAt < ignite.rolloutHorizon){
+			return task.teamSize;
+		}
+		IntBag sizes = new IntBag();
+		for(int size : new int[]{share/2, share, 2*share}){
+			size = Math.max(1, Math.min(ignite.numUAVs, size));
+			if(sizes.numObjs == 0 || sizes.objs[sizes.numObjs-1] != size){
+				sizes.add(size);
+			}
+		}
+
+		//the members of the task first, then the free UAVs by distance
+		final Task sized = task;
+		List<UAV> candidates = new ArrayList<>();
+		for(UAV uav : ignite.UAVs){
+			if(uav.myTask == task || uav.myTask == null){
+				candidates.add(uav);
+			}
+		}
+		Collections.sort(candidates, new Comparator<UAV>(){
+			public int compare(UAV a, UAV b){
+				if((a.myTask == sized) != (b.myTask == sized)){
+					return a.myTask == sized ? -1 : 1;
+				}
+				return Double.compare(distance(a, sized), distance(b, sized));
+			}
+		});
+
+		Rollout[] rollouts = ignite.fork(sizes.numObjs);
+		for(int b=0; b<rollouts.length; b++){
+			for(int i=0; i<candidates.size(); i++){
+				UAV uav = candidates.get(i);
+				if(uav.myTask == null && i < sizes.objs[b]){
+					rollouts[b].assign(uav, task);
+				}
+			}
+		}
+		ignite.rollout(rollouts, ignite.rolloutHorizon);
+
+		//the smallest team wins a tie
+		int best = 0;
+		for(int b=1; b<rollouts.length; b++){
+			if(rollouts[b].score() < rollouts[best].score()){
+				best = b;
+			}
+		}
+		task.teamSize = sizes.objs[best];
+		task.teamSizedAt = now;
+		return task.teamSize;
+	}
+
+	private static double distance(UAV uav, Task task){
+		return Math.max(Math.abs(uav.x - task.centroid.x), Math.abs(uav.y - task.centroid.y));
+	}
+
+	/**
+	 * Remove a task whose fires have all been extinguished, a fire growing
+	 * back from its clusters is given a new task.
+	 */
+	protected static void drop(Ignite ignite, Task task){
+		ignite.tasks.remove(task);
+		ignite.clusters.release(task);
+	}
+
+	protected static void assign(Ignite ignite, UAV uav, Task task){
+		task.UAVassigned += 1;
+		uav.myTask = task;
+		uav.target = new Double3D(task.centroid.x, task.centroid.y, uav.z);
+		Trace.log(ignite, Trace.Event.ASSIGNED, uav.id, task.id, task.manager.id);
+	}
+}
@@ -0,0 +1,101 @@
+package sim.app.firecontrol;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+/**
+ * Set of cells of the forest, with the bits of a tile allocated the first
+ * time one of them is set. Unlike a BitSet, a few cells at the end of a
+ * large map do not cost the bits of the whole map.
+ *
+ * @see Forest
+ */
+class TileBitSet implements java.io.Serializable{
+	private static final long serialVersionUID = 1L;
+
+	static final int WORDS = Forest.TILE_CELLS >>> 6;
+
+	//written in blocks of values in a checkpoint (see Checkpoint)
+	private transient long[][] tiles;
+	private int cardinality;
+
+	TileBitSet(Forest forest){
+		this.tiles = new long[forest.tiles()][];
+	}
+
+	//a copy of the given set
+	TileBitSet(TileBitSet other){
+		this.tiles = new long[other.tiles.length][];
+		for(int t=0; t<tiles.length; t++){
+			if(other.tiles[t] != null){
+				tiles[t] = other.tiles[t].clone();
+			}
+		}
+		this.cardinality = other.cardinality;
+	}
+
+	boolean get(int index){
+		long[] tile = tiles[index >>> Forest.TILE_CELLS_SHIFT];
+		return tile != null && (tile[(index >>> 6) & (WORDS-1)] & (1L << index)) != 0;
+	}
+
+	void set(int index){
+		int t = index >>> Forest.TILE_CELLS_SHIFT;
+		if(tiles[t] == null){
+			tiles[t] = new long[WORDS];
+		}
+		int w = (index >>> 6) & (WORDS-1);
+		if((tiles[t][w] & (1L << index)) == 0){
+			tiles[t][w] |= 1L << index;
+			cardinality++;
+		}
+	}
+
+	void clear(int index){
+		long[] tile = tiles[index >>> Forest.TILE_CELLS_SHIFT];
+		if(tile != null){
+			int w = (index >>> 6) & (WORDS-1);
+			if((tile[w] & (1L << index)) != 0){
+				tile[w] &= ~(1L << index);
+				cardinality--;
+			}
+		}
+	}
+
+	int cardinality(){
+		return cardinality;
+	}
+
+	private void writeObject(ObjectOutputStream out) throws IOException{
+		out.defaultWriteObject();
+		out.writeInt(tiles.length);
+		Checkpoint.Output blocks = new Checkpoint.Output(out);
+		for(int t=0; t<tiles.length; t++){
+			blocks.writeBoolean(tiles[t] != null);
+		}
+		for(int t=0; t<tiles.length; t++){
+			if(tiles[t] != null){
+				blocks.writeLongs(tiles[t], 0, WORDS);
+			}
+		}
+		blocks.close();
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException{
+		in.defaultReadObject();
+		tiles = new long[in.readInt()][];
+		Checkpoint.Input blocks = new Checkpoint.Input(in);
+		for(int t=0; t<tiles.length; t++){
+			if(blocks.readBoolean()){
+				tiles[t] = new long[WORDS];
+			}
+		}
+		for(int t=0; t<tiles.length; t++){
+			if(tiles[t] != null){
+				blocks.readLongs(tiles[t], 0, WORDS);
+			}
+		}
+		blocks.close();
+	}
+}
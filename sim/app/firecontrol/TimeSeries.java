@@ -0,0 +1,84 @@
+package sim.app.firecontrol;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+/**
+ * The state of a run at every step, streamed to a CSV file:
+ * - fire, burned, extinguished, number of cells of the type
+ * - busy, idle, number of UAVs with and without a task
+ * - tasks, number of tasks still burning
+ * The counts of the cells are kept by the Forest, a sample does not scan
+ * the map. Lines are buffered and written a block at a time.
+ * In a checkpoint the file is only referenced: the lines are flushed, and a
+ * restored run drops the lines written after the checkpoint and goes on.
+ *
+ * @see FireController
+ */
+public class TimeSeries implements java.io.Serializable{
+	private static final long serialVersionUID = 1L;
+
+	private String fileName;
+	private transient BufferedWriter out;
+	//length of the file at the last checkpoint
+	private long length;
+
+	public TimeSeries(String fileName) throws IOException{
+		this.fileName = fileName;
+		out = new BufferedWriter(new FileWriter(fileName), 1 << 16);
+		out.write("step,fire,burned,extinguished,busy,idle,tasks\n");
+	}
+
+	/**
+	 * Flush the lines, before a checkpoint.
+	 */
+	public void checkpoint() throws IOException{
+		out.flush();
+		length = new File(fileName).length();
+	}
+
+	/**
+	 * Open the file again once restored from a checkpoint.
+	 */
+	public void resume() throws IOException{
+		Checkpoint.truncate(fileName, length);
+		out = new BufferedWriter(new FileWriter(fileName, true), 1 << 16);
+	}
+
+	/**
+	 * Append the state of the simulation at the current step.
+	 */
+	public void sample(Ignite ignite) throws IOException{
+		Forest forest = ignite.forest;
+		int busy = 0;
+		for(UAV uav : ignite.UAVs){
+			if(uav.myTask != null){
+				busy++;
+			}
+		}
+		int tasks = 0;
+		for(Task task : ignite.tasks){
+			if(!task.isDone()){
+				tasks++;
+			}
+		}
+		StringBuilder line = new StringBuilder(64);
+		line.append(ignite.schedule.getSteps()).append(',')
+			.append(forest.count(CellType.FIRE)).append(',')
+			.append(forest.count(CellType.BURNED)).append(',')
+			.append(forest.count(CellType.EXTINGUISHED)).append(',')
+			.append(busy).append(',')
+			.append(ignite.UAVs.size() - busy).append(',')
+			.append(tasks).append('\n');
+		out.write(line.toString());
+	}
+
+	/**
+	 * Flush the lines still in the buffer and close the file.
+	 */
+	public void close() throws IOException{
+		out.close();
+	}
+}
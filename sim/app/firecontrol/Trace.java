@@ -0,0 +1,341 @@
+package sim.app.firecontrol;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Trace of the decisions of the agents (managers, auctions, assignments),
+ * for debugging.
+ * An event is a type and up to three numbers, the message is only formatted
+ * when written: logging an event does not allocate. Events are written to a
+ * ring buffer by the threads of the simulations and drained by a background
+ * thread to the sink, stderr or a file. A thread only waits when the buffer
+ * is full. Every category has its own level, an event below the level of
+ * its category costs a read and a branch.
+ *
+ * The levels and the sink are set by system properties, e.g.
+ *   -Dfirecontrol.trace=allocation:info,auction:debug
+ *   -Dfirecontrol.trace.out=results/trace.bin
+ * A sink ending with .bin is binary: magic, version, names of the events,
+ * then for every event its run (seed), step, type (byte) and numbers.
+ *   java sim.app.firecontrol.Trace results/trace.bin
+ * prints it as text.
+ */
+public final class Trace{
+
+	public enum Category{ ALLOCATION, AUCTION }
+
+	public enum Level{ OFF, INFO, DEBUG }
+
+	public enum Event{
+		MANAGER(Category.ALLOCATION, Level.INFO, "Manager task %d: UAV %d"),
+		ASSIGNED(Category.ALLOCATION, Level.INFO, "UAV %d:\tAssigned task %d\t by UAV %d"),
+		TEAM(Category.ALLOCATION, Level.DEBUG, "UAV %d:\tAssigned %d\tUAV needed %d"),
+		REQUEST(Category.AUCTION, Level.DEBUG, "UAV %d:\tRequest for proposal sent!"),
+		PROPOSE(Category.AUCTION, Level.DEBUG, "UAV %d:\tPropose sent to UAV %d"),
+		RANDOM_TASK(Category.AUCTION, Level.DEBUG, "UAV %d:\tRandom task assignment!");
+
+		final Category category;
+		final Level level;
+		final String format;
+
+		Event(Category category, Level level, String format){
+			this.category = category;
+			this.level = level;
+			this.format = format;
+		}
+	}
+
+	static final int MAGIC = 0x49474E54; //IGNT
+	static final int VERSION = 1;
+	//events in the buffer, a power of 2
+	static final int CAPACITY = 1 << 14;
+	static final int MASK = CAPACITY - 1;
+
+	private static final Level[] levels = new Level[Category.values().length];
+	//events logged with the current levels, read on every event
+	private static final boolean[] enabled = new boolean[Event.values().length];
+
+	//sequence of the last event published in every slot
+	private static final AtomicLongArray published = new AtomicLongArray(CAPACITY);
+	private static final long[] seeds = new long[CAPACITY];
+	private static final long[] steps = new long[CAPACITY];
+	private static final int[] events = new int[CAPACITY];
+	private static final int[] as = new int[CAPACITY];
+	private static final int[] bs = new int[CAPACITY];
+	private static final int[] cs = new int[CAPACITY];
+	//next sequence to claim, and next to drain
+	private static final AtomicLong claimed = new AtomicLong();
+	private static final AtomicLong drained = new AtomicLong();
+
+	private static Sink sink;
+	private static Thread drainer;
+	private static volatile boolean closing;
+
+	static{
+		for(int s=0; s<CAPACITY; s++){
+			published.set(s, -1);
+		}
+		Arrays.fill(levels, Level.OFF);
+		levels[Category.ALLOCATION.ordinal()] = Level.INFO;
+		String trace = System.getProperty("firecontrol.trace");
+		if(trace != null){
+			for(String setting : trace.split(",")){
+				String[] parts = setting.trim().split(":");
+				if(parts.length == 2){
+					try{
+						levels[Category.valueOf(parts[0].toUpperCase()).ordinal()] = Level.valueOf(parts[1].toUpperCase());
+					} catch(IllegalArgumentException e){
+						System.err.println("Unknown trace setting " + setting);
+					}
+				}
+			}
+		}
+		update();
+	}
+
+	private Trace(){
+	}
+
+	public static synchronized void setLevel(Category category, Level level){
+		levels[category.ordinal()] = level;
+		update();
+	}
+
+	public static boolean isEnabled(Event event){
+		return enabled[event.ordinal()];
+	}
+
+	private static void update(){
+		for(Event event : Event.values()){
+			enabled[event.ordinal()] = event.level != Level.OFF && levels[event.category.ordinal()].compareTo(event.level) >= 0;
+		}
+	}
+
+	public static void log(Ignite ignite, Event event, int a){
+		if(enabled[event.ordinal()]){
+			publish(ignite, event, a, 0, 0);
+		}
+	}
+
+	public static void log(Ignite ignite, Event event, int a, int b){
+		if(enabled[event.ordinal()]){
+			publish(ignite, event, a, b, 0);
+		}
+	}
+
+	public static void log(Ignite ignite, Event event, int a, int b, int c){
+		if(enabled[event.ordinal()]){
+			publish(ignite, event, a, b, c);
+		}
+	}
+
+	private static void publish(Ignite ignite, Event event, int a, int b, int c){
+		if(closing){
+			return;
+		}
+		if(drainer == null){
+			start();
+		}
+		long sequence = claimed.getAndIncrement();
+		//wait for the drainer to free the slot
+		while(sequence - drained.get() >= CAPACITY){
+			LockSupport.unpark(drainer);
+			Thread.yield();
+		}
+		int slot = (int)(sequence & MASK);
+		seeds[slot] = ignite.seed();
+		steps[slot] = ignite.schedule.getSteps();
+		events[slot] = event.ordinal();
+		as[slot] = a;
+		bs[slot] = b;
+		cs[slot] = c;
+		published.lazySet(slot, sequence);
+	}
+
+	/**
+	 * Write the events to the given file instead of the one of the
+	 * properties, before the first event.
+	 */
+	public static synchronized void open(String fileName) throws IOException{
+		if(drainer != null){
+			throw new IllegalStateException("Trace already started");
+		}
+		sink = fileName.endsWith(".bin") ? new BinarySink(fileName) : new TextSink(new FileWriter(fileName));
+		start();
+	}
+
+	private static synchronized void start(){
+		if(drainer != null){
+			return;
+		}
+		if(sink == null){
+			String out = System.getProperty("firecontrol.trace.out");
+			try{
+				if(out == null){
+					sink = new TextSink(new OutputStreamWriter(System.err));
+				} else if(out.endsWith(".bin")){
+					sink = new BinarySink(out);
+				} else {
+					sink = new TextSink(new FileWriter(out));
+				}
+			} catch(IOException e){
+				System.err.println("Exception in Trace.start() " + e.toString());
+				sink = new TextSink(new OutputStreamWriter(System.err));
+			}
+		}
+		Thread thread = new Thread(Trace::drain, "trace");
+		thread.setDaemon(true);
+		thread.start();
+		Runtime.getRuntime().addShutdownHook(new Thread(Trace::close));
+		drainer = thread;
+	}
+
+	//move the events from the buffer to the sink, until closed
+	private static void drain(){
+		try{
+			while(true){
+				long next = drained.get();
+				int slot = (int)(next & MASK);
+				if(published.get(slot) == next){
+					sink.write(seeds[slot], steps[slot], events[slot], as[slot], bs[slot], cs[slot]);
+					drained.lazySet(next + 1);
+				} else if(closing && next >= claimed.get()){
+					break;
+				} else {
+					sink.flush();
+					LockSupport.parkNanos(1000000);
+				}
+			}
+			sink.close();
+		} catch(IOException e){
+			System.err.println("Exception in Trace.drain() " + e.toString());
+		}
+	}
+
+	/**
+	 * Write all the events logged so far and close the sink. Called at exit.
+	 */
+	public static synchronized void close(){
+		if(drainer == null || closing){
+			return;
+		}
+		closing = true;
+		LockSupport.unpark(drainer);
+		try{
+			drainer.join();
+		} catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	interface Sink{
+		void write(long seed, long step, int event, int a, int b, int c) throws IOException;
+		void flush() throws IOException;
+		void close() throws IOException;
+	}
+
+	static class TextSink implements Sink{
+		private final Writer out;
+
+		TextSink(Writer out){
+			this.out = new BufferedWriter(out);
+		}
+
+		@Override
+		public void write(long seed, long step, int event, int a, int b, int c) throws IOException{
+			out.write(format(seed, step, Event.values()[event], a, b, c));
+			out.write('\n');
+		}
+
+		@Override
+		public void flush() throws IOException{
+			out.flush();
+		}
+
+		@Override
+		public void close() throws IOException{
+			out.flush();
+		}
+	}
+
+	static class BinarySink implements Sink{
+		private final DataOutputStream out;
+
+		BinarySink(String fileName) throws IOException{
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName)));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(Event.values().length);
+			for(Event event : Event.values()){
+				out.writeUTF(event.name());
+			}
+		}
+
+		@Override
+		public void write(long seed, long step, int event, int a, int b, int c) throws IOException{
+			out.writeLong(seed);
+			out.writeLong(step);
+			out.writeByte(event);
+			out.writeInt(a);
+			out.writeInt(b);
+			out.writeInt(c);
+		}
+
+		@Override
+		public void flush() throws IOException{
+			out.flush();
+		}
+
+		@Override
+		public void close() throws IOException{
+			out.close();
+		}
+	}
+
+	static String format(long seed, long step, Event event, int a, int b, int c){
+		return seed + ":" + step + "\t" + String.format(event.format, a, b, c);
+	}
+
+	public static void main(String[] args) throws IOException{
+		if(args.length != 1){
+			System.err.println("Usage: java sim.app.firecontrol.Trace trace.bin");
+			System.exit(1);
+		}
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(args[0])))){
+			if(in.readInt() != MAGIC || in.readInt() != VERSION){
+				throw new IOException("Not a trace: " + args[0]);
+			}
+			//the events of the file, by name
+			Event[] types = new Event[in.readInt()];
+			for(int e=0; e<types.length; e++){
+				types[e] = Event.valueOf(in.readUTF());
+			}
+			while(true){
+				long seed;
+				try{
+					seed = in.readLong();
+				} catch(EOFException e){
+					break;
+				}
+				long step = in.readLong();
+				Event event = types[in.readByte()];
+				System.out.println(format(seed, step, event, in.readInt(), in.readInt(), in.readInt()));
+			}
+		}
+	}
+}
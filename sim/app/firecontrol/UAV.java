@@ -11,23 +11,16 @@
  */
 package sim.app.firecontrol;
 
-import java.util.LinkedHashSet;
+import java.util.Arrays;
 import java.util.LinkedList;
-import java.util.Set;
 import java.util.Random;
 import java.util.Iterator;
 
 import sim.engine.SimState;
 import sim.engine.Steppable;
+import sim.util.Bag;
 import sim.util.Double3D;
-import sim.util.Int3D;
-
-// Personal
-import sim.field.grid.ObjectGrid2D;
-import java.util.Map;
-import java.util.HashMap;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import sim.util.Int2D;
 
 public class UAV implements Steppable{
 	private static final long serialVersionUID = 1L;
@@ -39,48 +32,69 @@ public class UAV implements Steppable{
 	public double z; //z position in the world
 	public Double3D target; //UAV target
 	public AgentAction action; //last action executed by the UAV
-	public static double communicationRange = 30; //communication range for the UAVs
+	public double communicationRange; //communication range for the UAVs
 
 	// Agent's local knowledge
-	public Set<WorldCell> knownCells;
+	public Knowledge knowledge;
 	public Task myTask;
 
-	// Agent's settings - static because they have to be the same for all the
-	// UAV in the simulation. If you change it once, you change it for all the UAV.
-	public static double linearvelocity = 0.02;
+	// Agent's settings - taken from the simulation because they have to be the
+	// same for all the UAV in the simulation.
+	public double linearvelocity;
 
 	//used to count the steps needed to extinguish a fire in a location
-	public static int stepToExtinguish = 10;
+	public int stepToExtinguish;
 	//used to remember when first started to extinguish at current location
 	private int startedToExtinguishAt = -1;
 
+	//motion toward the target, the position at any step follows from the
+	//position and the step it started from (-1 if the UAV never moved)
+	private Double3D heading;
+	private double fromX, fromY;
+	private long departure = -1;
+	//event driven mode, next step the UAV has to be stepped at (see Swarm)
+	long wakeAt;
+
+	//read by sense: the cell below the UAV
+	private int below;
+	private CellType belowType;
+	//left by decide to the commit: cell selection, motion, fire to extinguish
+	//and fire to wait for
+	private boolean selecting;
+	private boolean bidding;
+	private boolean moved;
+	private int extinguished = -1;
+	private int waitFor = -1;
+
 	// Personal
-	Random random = new Random();
-	public ObjectGrid2D knownForest;
+	Random random;
 	public int attempt;
-	public static int height = 60; //size of the forest
-	public static int width = 60; //size of the forest
 	public DataPacket data;
-	public Map<UAV, Double> proposals;
-	private Lock lock = new ReentrantLock();
+	private int sequence = 0; //sequence number of the last packet sent
+	private Knowledge learned = new Knowledge(); //cells learned since the last packet sent
+	private int[] lastSeq = new int[0]; //last packet received from every UAV
 
-	public UAV(int id, Double3D myPosition){
+	public UAV(int id, Double3D myPosition, Ignite ignite){
 		//set agent's id
 		this.id = id;
 		//set agent's position
 		this.x = myPosition.x;
 		this.y = myPosition.y;
 		this.z = myPosition.z;
+		//set agent's settings
+		this.communicationRange = ignite.communicationRange;
+		this.linearvelocity = ignite.linearvelocity;
+		this.stepToExtinguish = ignite.stepToExtinguish;
 		//at the beginning agents have no action
 		this.action = null;
 		//at the beginning agents have no known cells
-		this.knownCells = new LinkedHashSet<>();
+		this.knowledge = new Knowledge();
+		//random numbers of the agent, given by the simulation for reproducibility
+		this.random = new Random(ignite.random.nextLong());
 
 		// Personal
-		this.knownForest = new ObjectGrid2D(width, height);
 		this.attempt = 0;
 		this.data = null;
-		this.proposals = new HashMap<UAV, Double>();
 	}
 
 	// DO NOT REMOVE
@@ -118,17 +132,36 @@ public class UAV implements Steppable{
 	}
 
 	/**
-	 *  Do one step.
+	 *  Do one step, all the phases at once.
 	 *  Core of the simulation.
+	 *  @see Swarm
 	 */
 	public void step(SimState state){
 		Ignite ignite = (Ignite)state;
+		sense(ignite);
+		decide(ignite);
+		commit(ignite);
+	}
+
+	/**
+	 * First phase of a step: catch up with the motion of the steps skipped
+	 * and read the cell below. Only reads the state of the simulation.
+	 */
+	void sense(Ignite ignite){
+		locate(ignite.schedule.getSteps() - 1);
+		this.below = ignite.forest.index((int) x, (int) y);
+		this.belowType = ignite.forest.getType(below);
+	}
 
+	/**
+	 * Second phase of a step: select and run the next action.
+	 * Only the state of this UAV is changed, the actions on the state shared
+	 * with the other UAVs are left to the commit.
+	 */
+	void decide(Ignite ignite){
 		//select the next action for the agent
 		AgentAction a = nextAction(ignite);
 
-		assignTasks(ignite);
-
 		switch(a){
 		case SELECT_TASK:
 			// ------------------------------------------------------------------------
@@ -151,21 +184,21 @@ public class UAV implements Steppable{
 			// TODO Implement here your random walk or intra-task allocation strategy
 			//System.err.println("TODO: and now? Use random walk or task assignment!");
 
-			selectCell(ignite); //<- change the signature if needed
+			//the cells are claimed on the planner of the task at the commit
+			this.selecting = true; //<- change the signature if needed
 			//this.action = a;
 			break;
 
 		case MOVE:
-			move(state);
+			move(ignite);
 			break;
 
 		case EXTINGUISH:
 			//if true set the cell to be normal and foamed
 			if(extinguish(ignite)){
-				//retrieve discrete location of this
-				Int3D dLoc = ignite.air.discretize(new Double3D(this.x, this.y, this.z));
-				//extinguish the fire
-				((WorldCell)ignite.forest.field[dLoc.x][dLoc.y]).extinguish(ignite);
+				//extinguish the fire at the commit
+				this.extinguished = below;
+				learn(below, CellType.EXTINGUISHED);
 				this.target = null;
 				//this.action=null;
 			}
@@ -178,6 +211,60 @@ public class UAV implements Steppable{
 		}
 	}
 
+	/**
+	 * Last phase of a step: apply the actions on the state shared with the
+	 * other UAVs. The UAVs commit one at a time, in the order of the ids.
+	 */
+	void commit(Ignite ignite){
+		if(selecting){
+			selecting = false;
+			selectCell(ignite);
+		}
+		if(bidding){
+			bidding = false;
+			Task known = closestKnownTask(ignite);
+			if(known != null)
+				propose(known, ignite);
+		}
+		if(moved){
+			moved = false;
+			ignite.air.setObjectLocation(this, new Double3D(this.x, this.y, this.z));
+		}
+		if(extinguished >= 0){
+			ignite.forest.getCell(extinguished).extinguish(ignite);
+			extinguished = -1;
+		}
+		//the fire may be already out, extinguished by another UAV
+		if(waitFor >= 0){
+			if(ignite.forest.getType(waitFor).equals(CellType.FIRE))
+				ignite.waitFireOut(waitFor, this);
+			waitFor = -1;
+		}
+		if(ignite.eventDriven)
+			sleep(ignite);
+	}
+
+	/**
+	 * Event driven mode: skip the steps where nothing but the motion happens.
+	 * The UAV is stepped again once on the target or done extinguishing, and
+	 * at the next step otherwise.
+	 */
+	private void sleep(Ignite ignite){
+		long next = ignite.schedule.getSteps() + 1;
+		if(this.target != null && this.target == this.heading)
+			next = Math.max(next, arrival() + 1);
+		if(startedToExtinguishAt != -1 && ignite.forest.getType(below).equals(CellType.FIRE))
+			next = Math.max(next, startedToExtinguishAt + stepToExtinguish);
+		this.wakeAt = next;
+	}
+
+	/**
+	 * Step the UAV at the given step, instead of the one it was waiting for.
+	 */
+	public void wake(long step){
+		this.wakeAt = step;
+	}
+
 	// Choose next action
 	private AgentAction nextAction(Ignite ignite){
 		//if I do not have a task I need to take one
@@ -192,22 +279,22 @@ public class UAV implements Steppable{
 		//check if I am over the target and in that case execute the right action;
 		//if not, continue to move toward the target
 		//else if(this.target.equals(ignite.air.discretize(new Double3D(this.x, this.y, this.z)))){
-		else if(this.target.equals(new Double3D(x, y, z))){
+		else if(this.target.x == x && this.target.y == y && this.target.z == z){
 			//if on fire then extinguish, otherwise move on
-			WorldCell cell = (WorldCell)ignite.forest.field[(int) x][(int) y];
 			//store the knowledge for efficient selection
-			this.knownCells.add(cell);
-			this.knownForest.field[cell.getX()][cell.getY()] = cell;
+			learn(below, belowType);
 
 			// Share information between UAVs
 			Double3D position = new Double3D(this.x,this.y,this.z);
-			DataPacket data = new DataPacket(this.id, position, this.knownCells, this.myTask, this.myTask.manager.id == this.id);
-			if(cell.type.equals(CellType.FIRE)){
+			DataPacket data = newPacket(ignite, position, this.myTask, this.myTask.manager == this);
+			if(belowType.equals(CellType.FIRE)){
 				sendData(data, ignite, true);			// Only send data if in FIRE cells
 				return AgentAction.EXTINGUISH;
 			}
 			else{
 				sendData(data, ignite, false);
+				//the fire went out before the end
+				this.startedToExtinguishAt = -1;
 				this.attempt += 1;
 				return AgentAction.SELECT_CELL;
 			}
@@ -217,90 +304,23 @@ public class UAV implements Steppable{
 		}
 	}
 
-	// Assign task for the drones, used only by the MANAGER
-	private void assignTasks(Ignite ignite) {
-		try{
-			if(this.id == this.myTask.manager.id && this.proposals.size() > 0){
-
-				//System.err.println("UAV " + this.id + ": Tasksize " + ignite.tasks.size() +
-				//					" Proposals size " + this.proposals.size());
-
-				if(this.myTask.radius == 0){
-					ignite.tasks.remove(this.myTask);
-				}
-				else{
-					int totalFire = 0;
-
-					// Get total number of cells with fire
-					for(Task task : ignite.tasks){
-						if (task.radius != 0)
-							totalFire += task.utility;
-					}
-
-					// Calculate UAV needed
-					int uavNeeded = (int)(ignite.numUAVs * this.myTask.utility / totalFire);															
-
-					// Assign tasks for the drones
-					lock.lock();
-					try{
-						int proposals = this.proposals.size();
-						for (int i=0; i<proposals; i++){
-							// Exit if more UAV than needed
-							if (this.myTask.UAVassigned >= uavNeeded)
-								break;
-
-							UAV bestUAV = null;
-							double bestOffer = 0;
-							for(Map.Entry<UAV, Double> UAVoffer : this.proposals.entrySet()){
-								if (UAVoffer.getValue() > bestOffer && UAVoffer.getKey().myTask == null){
-									bestOffer = UAVoffer.getValue();
-									bestUAV = UAVoffer.getKey();
-								}
-							}
-							this.proposals.remove(bestUAV);
-							this.myTask.UAVassigned += 1;
-							bestUAV.myTask = this.myTask;
-							bestUAV.target = new Double3D(this.myTask.centroid.x, this.myTask.centroid.y, bestUAV.z);
-							System.err.println("UAV " + bestUAV.id + ":" + "\tAssigned task " + this.myTask.id + "\t by UAV " +
-								this.myTask.manager.id + "\tProposals size " + this.proposals.size());
-						}
-
-						this.proposals = new HashMap<UAV, Double>();
-						/*System.err.println("Tá imprimindo essa porra!");
-						proposals = this.proposals.size();
-						for (int i=0; i<proposals; i++){
-							for(Map.Entry<UAV, Double> UAVoffer : this.proposals.entrySet()){
-								UAV uav = UAVoffer.getKey();
-								uav.action = null;
-								this.proposals.remove(uav);
-							}
-						}*/
-					} finally {
-						lock.unlock();
-					}
-
-					System.err.println("UAV " + this.id + ":" +
-										"\tAssigned " + this.myTask.UAVassigned +
-										"\tProposals " + this.proposals.size() +
-										"\tUAV needed " + uavNeeded);
-				}
-			}
-		}catch(NullPointerException e){}
-	}
-
 	/**
 	* Take the centroid of the fire and its expected radius and extract the new
 	* task for the agent.
 	*/
 	private void selectTask(Ignite ignite) {
+		// No task left to join, wait for the next fire
+		if (ignite.tasks.isEmpty())
+			return;
+
 		Task newTask = this.myTask;
 		this.attempt += 1;
 
 		// Check if UAV is the manager
 		for(Task task : ignite.tasks){
-			if(this.id == task.manager.id){
+			if(task.manager == this){
 				requestForBid(task, ignite);
-				System.err.println("UAV " + this.id + ":\tRequest for proposal sent!");
+				Trace.log(ignite, Trace.Event.REQUEST, this.id);
 
 				this.action = AgentAction.PROPOSED;
 				this.myTask = task;
@@ -315,19 +335,23 @@ public class UAV implements Steppable{
 			this.myTask = ignite.tasks.get(random.nextInt(ignite.tasks.size()));
 			this.target = new Double3D(myTask.centroid.x, myTask.centroid.y, this.z);
 
-			System.err.println("UAV " + this.id + ":\tRandom task assignment!");
+			Trace.log(ignite, Trace.Event.RANDOM_TASK, this.id);
 		}
 		// Send propose
 		else if (newTask == null && ignite.tasks.size()>1){//} && this.action == null){
 			LinkedList<DataPacket> dataReceived = receiveData(ignite, false);
 
+			boolean proposals = false;
 			for (DataPacket dp : dataReceived){
+				proposals |= dp.header.taskProposal;
 				if (dp.header.taskProposal == true)
 					propose(dp.payload.task, ignite);
 					this.action = AgentAction.PROPOSED;
-					System.err.println("UAV " + this.id + ":\tPropose sent to UAV " + dp.payload.task.manager.id
-						+ "\tPackage size " + dp.payload.task.manager.proposals.size());
+					Trace.log(ignite, Trace.Event.PROPOSE, this.id, dp.header.id);
 			}
+			// no manager in range, bid for the closest fire known at the commit
+			if (!proposals)
+				this.bidding = true;
 		}
 		else{
 			this.myTask = ignite.tasks.get(0);
@@ -338,64 +362,47 @@ public class UAV implements Steppable{
 	}
 
 	/**
-	 * Take the centroid of the fire and its expected radius and select the next
-	 * cell that requires closer inspection or/and foam.
+	 * The task of the closest fire known by the UAV, seen by itself or learned
+	 * from the packets of the team, that is still burning.
+	 * Called at the commit, the clusters are not safe to read concurrently.
+	 */
+	private Task closestKnownTask(Ignite ignite){
+		Forest forest = ignite.forest;
+		Task closest = null;
+		double bestDistance = Double.MAX_VALUE;
+		for(int index = knowledge.nextFire(0); index >= 0; index = knowledge.nextFire(index + 1)){
+			if(!forest.getType(index).equals(CellType.FIRE))
+				continue;
+			Task task = ignite.clusters.taskOf(index);
+			double dx = forest.x(index) - this.x;
+			double dy = forest.y(index) - this.y;
+			if(task != null && dx*dx + dy*dy < bestDistance){
+				bestDistance = dx*dx + dy*dy;
+				closest = task;
+			}
+		}
+		return closest;
+	}
+
+	/**
+	 * Select the closest cell on fire of the task not already targeted by
+	 * another UAV of the task (see CoveragePlanner).
 	 */
 	private void selectCell(Ignite ignite) {
-		//remember to set the new target at the end of the procedure
-		Double3D newTarget = new Double3D(this.x, this.y, this.z);
+		Int2D cell = null;
+		// If tasks does not exist anymore there is nothing to select
+		if (!this.myTask.isDone())
+			cell = this.myTask.planner.nextTarget(ignite, this);
 
-		// If tasks does not exist anymore
-		if (this.myTask.radius == 0){
+		if (cell == null){
+			this.myTask.planner.release(this);
 			this.myTask = null;
 			this.target = null;
 			this.action = null;
 			this.attempt=0;
 		}
-		// Request communication if UAV is lost in NORMAL or BURNED cells
-		else if (this.attempt >= 10){
-			this.attempt = 0;
-
-			LinkedList<DataPacket> dataReceived = receiveData(ignite, true);
-			if (dataReceived.size() != 0){
-				// Find the closest one
-				Double3D closest = findClosest(dataReceived);
-
-				newTarget = new Double3D(closest.x, closest.y, this.z);
-				System.err.println("UAV " + this.id +
-									"\tOld position: " + this.x + " " + this.y +
-									"\tNew position: " + newTarget.x + " " + newTarget.y +
-									"\tNumber of messages: " + dataReceived.size());
-			}
-		}
-		// Do random walk
-		if (this.myTask != null)
-			this.target = selectRandomCell(ignite, newTarget);
-	}
-
-	// Select random cell near the cell where the UAV is located
-	private Double3D selectRandomCell(Ignite ignite, Double3D newTarget){
-		int randX, randY;
-		int trials = 0;
-		Double3D newPosition = null;
-		double radius = myTask.radius;
-		double newRadius;
-
-		do{
-			trials += 1;
-			randX = random.nextInt(5) - 2;
-			randY = random.nextInt(5) - 2;
-			newRadius = Math.sqrt(Math.pow(x + randX - myTask.centroid.x,2) + Math.pow(y + randY - myTask.centroid.y,2));
-			newPosition = new Double3D(newTarget.x + randX, newTarget.y + randY, newTarget.z);
-
-			if(trials >= 10){
-				newPosition = newTarget;
-				this.attempt += 1;
-				break;
-			}
-		} while((randX == 0 && randY == 0) || !(ignite.isInBounds(newPosition)) || newRadius > radius || newRadius < radius-7);
-
-		return newPosition;
+		else
+			this.target = new Double3D(cell.x, cell.y, this.z);
 	}
 
 	/**
@@ -403,38 +410,56 @@ public class UAV implements Steppable{
 	 * The agent moves at a fixed given velocity
 	 * @see this.linearvelocity
 	 */
-	public void move(SimState state){
-		Ignite ignite = (Ignite) state;
-
-		// retrieve the location of this
-		Double3D location = ignite.air.getObjectLocationAsDouble3D(this);
-		double myx = location.x;
-		double myy = location.y;
-		double myz = location.z;
-
-		// compute the distance w.r.t. the target
-		// the z axis is only used when entering or leaving an area
-		double xdistance = this.target.x - myx;
-		double ydistance = this.target.y - myy;
-
-		if(xdistance < 0)
-			myx -= Math.min(Math.abs(xdistance), linearvelocity);
-		else
-			myx += Math.min(xdistance, linearvelocity);
-
-		if(ydistance < 0){
-			myy -= Math.min(Math.abs(ydistance), linearvelocity);
-		}
-		else{
-			myy += Math.min(ydistance, linearvelocity);
+	public void move(Ignite ignite){
+		long now = ignite.schedule.getSteps();
+
+		// a new target, the motion starts from the current position
+		if(this.heading != this.target){
+			this.heading = this.target;
+			this.fromX = this.x;
+			this.fromY = this.y;
+			this.departure = now - 1;
 		}
+		locate(now);
 
-		// update position in the simulation
-		ignite.air.setObjectLocation(this, new Double3D(myx, myy, myz));
-		// update position local position
-		this.x = myx;
-		this.y = myy;
-		this.z = myz;
+		// the position in the simulation is updated at the commit
+		this.moved = true;
+	}
+
+	/**
+	 * Bring the local position up to date with the motion, as it is at the end
+	 * of the given step. Both axes advance of linearvelocity per step until
+	 * they reach the target, as long as the target does not change.
+	 * The z axis is only used when entering or leaving an area.
+	 */
+	public void locate(long step){
+		if(departure < 0 || step <= departure)
+			return;
+		double moved = linearvelocity*(step - departure);
+		this.x = along(fromX, heading.x, moved);
+		this.y = along(fromY, heading.y, moved);
+	}
+
+	private static double along(double from, double to, double moved){
+		if(moved >= Math.abs(to - from))
+			return to;
+		return to > from ? from + moved : from - moved;
+	}
+
+	// first step at the end of which the UAV is over the target
+	private long arrival(){
+		return departure + Math.max(moves(heading.x - fromX), moves(heading.y - fromY));
+	}
+
+	// steps needed to cover the distance, as counted by along()
+	private long moves(double distance){
+		double d = Math.abs(distance);
+		long k = (long)Math.ceil(d/linearvelocity);
+		while(k > 0 && linearvelocity*(k-1) >= d)
+			k--;
+		while(linearvelocity*k < d)
+			k++;
+		return k;
 	}
 
 	/**
@@ -446,6 +471,9 @@ public class UAV implements Steppable{
 	private boolean extinguish(Ignite ignite){
 		if(startedToExtinguishAt==-1){
 			this.startedToExtinguishAt = (int) ignite.schedule.getSteps();
+			//stepped again if the fire goes out before the end
+			if(ignite.eventDriven)
+				this.waitFor = below;
 		}
 		//enough time has passed, the fire is gone
 		if(ignite.schedule.getSteps() - startedToExtinguishAt >= stepToExtinguish){
@@ -460,8 +488,22 @@ public class UAV implements Steppable{
 	 * Check if the input location is within communication range
 	 */
 	public boolean isInCommunicationRange(Double3D otherLoc){
-		Double3D myLoc = new Double3D(this.x,this.y,this.z);
-		return myLoc.distance(otherLoc) <= UAV.communicationRange;
+		return isInCommunicationRange(otherLoc.x, otherLoc.y, otherLoc.z);
+	}
+
+	public boolean isInCommunicationRange(double x, double y, double z){
+		double dx = this.x - x;
+		double dy = this.y - y;
+		double dz = this.z - z;
+		return dx*dx + dy*dy + dz*dz <= this.communicationRange*this.communicationRange;
+	}
+
+	/**
+	 * COMMUNICATION
+	 * Build a new packet, carrying the cells learned since the last packet sent
+	 */
+	public DataPacket newPacket(Ignite ignite, Double3D position, Task task, boolean taskProposal){
+		return new DataPacket(this.id, this.sequence + 1, ignite.schedule.getSteps(), position, learned, task, taskProposal);
 	}
 
 	/**
@@ -470,41 +512,44 @@ public class UAV implements Steppable{
 	 */
 	public void sendData(DataPacket packet, Ignite ignite, boolean add){
 		// if the drone is a manager, its packet cannot be deleted
-		if(add)
+		if(add){
 			this.data = packet;
-		else if (this.myTask.manager.id != this.id)
+			this.sequence = packet.header.seq;
+			//the cells learned so far have been shared
+			this.learned = new Knowledge();
+		}
+		else if (this.myTask.manager != this)
 			this.data = null;
 	}
 
+	// Store the knowledge about a visited cell, it will be shared with the next packet
+	private void learn(int index, CellType type){
+		if(this.knowledge.observe(index, type))
+			this.learned.observe(index, type);
+	}
+
 	/**
 	 * COMMUNICATION
-	 * Receive a message from the team
+	 * Receive a message from the team.
+	 * Only the packets in range, collected by the bus at the beginning of the
+	 * step, are checked.
+	 * @see CommsBus
 	 */
 	public LinkedList<DataPacket> receiveData(Ignite ignite, boolean eliminateManager){
 		LinkedList<DataPacket> dataReceived = new LinkedList<>();
 
-		for(UAV uav : ignite.UAVs){
-			DataPacket dp = uav.data;
-			if(dp != null){
-				if(dp.header.id != this.id &&
-					isInCommunicationRange(dp.payload.position) &&
-					(dp.payload.task == this.myTask || this.myTask == null) &&
-					(!eliminateManager || dp.header.id != this.myTask.manager.id))
-						dataReceived.add(dp);
+		for(DataPacket dp : ignite.bus.mailbox(this)){
+			// the knowledge of a packet is merged only once, the packet is still
+			// delivered as it is the current state of its sender
+			if(!dp.isDuplicate(lastSeq)){
+				if(dp.header.id >= lastSeq.length)
+					lastSeq = Arrays.copyOf(lastSeq, Math.max(dp.header.id + 1, lastSeq.length*2));
+				lastSeq[dp.header.id] = dp.header.seq;
+				this.knowledge.merge(dp.payload.knowledge);
 			}
-		}
-		return dataReceived;
-	}
-
-	// Check all data received for the given id
-	public LinkedList<DataPacket> testeAllData(Ignite ignite, int id){
-		LinkedList<DataPacket> dataReceived = new LinkedList<>();
-
-		for(UAV uav : ignite.UAVs){
-			DataPacket dp = uav.data;
-			if(dp != null){
+			if((dp.payload.task == this.myTask || this.myTask == null) &&
+				(!eliminateManager || this.myTask.manager == null || dp.header.id != this.myTask.manager.id))
 					dataReceived.add(dp);
-			}
 		}
 		return dataReceived;
 	}
@@ -514,7 +559,7 @@ public class UAV implements Steppable{
 	// Request for bid
 	public void requestForBid(Task task, Ignite ignite){
 		Double3D position = new Double3D(task.centroid.x,task.centroid.y,this.z);
-		DataPacket taskProposal = new DataPacket(this.id, position, null, task, true);
+		DataPacket taskProposal = newPacket(ignite, position, task, true);
 		sendData(taskProposal, ignite, true);
 	}
 
@@ -522,40 +567,7 @@ public class UAV implements Steppable{
 	public void propose(Task task, Ignite ignite){
 		double distance = Math.sqrt(Math.pow(this.x - task.centroid.x,2) + Math.pow(this.y - task.centroid.y,2));
 		double offer = task.utility / distance;
-		lock.lock();
-		try{
-			task.manager.proposals.put(this, offer);
-		} finally{
-			lock.unlock();
-		}
-		
-	}
-
-	// Refuse task
-	public void refuse(Task task, Ignite ignite){
-		//DataPacket taskRefused = new DataPacket(-1, null, null, task, "taskRefused");
-		lock.lock();
-		try{
-			task.manager.proposals.put(this, 0.0);
-		} finally{
-			lock.unlock();
-		}
-	}
-
-
-	// Given a list of DataPacket return the closest one to the UAV
-	public Double3D findClosest(LinkedList<DataPacket> data){
-		Double3D newPosition = new Double3D();
-		Double3D myLoc = new Double3D(this.x,this.y,this.z);
-		double distance = 1000000;
-
-		for(DataPacket dp : data) {
-			if(myLoc.distance(dp.payload.position) < distance) {
-					distance = myLoc.distance(dp.payload.position);
-					newPosition = dp.payload.position;
-			 }
-		}
-		return newPosition;
+		ignite.allocator.propose(this, task, offer);
 	}
 
 	/**
@@ -570,12 +582,13 @@ public class UAV implements Steppable{
 	public int[] retrieveAgents(Ignite ignite){
 		int[] status = new int[ignite.tasks.size()];
 
-		for(Object obj : ignite.UAVs){ //count also this uav
-			UAV other = (UAV) obj;
-			if(isInCommunicationRange(new Double3D(other.x, other.y, other.z))){
-				Task task = other.myTask;
-				if(task != null)
-					status[ignite.tasks.indexOf(task)]++;
+		Bag inRange = ignite.bus.agentsInRange(this); //count also this uav
+		for(int i=0; i<inRange.numObjs; i++){
+			UAV other = (UAV) inRange.objs[i];
+			if(other.myTask != null){
+				int index = ignite.tasks.indexOf(other.myTask);
+				if(index >= 0)
+					status[index]++;
 			}
 		}
 
@@ -588,6 +601,11 @@ public class UAV implements Steppable{
 		return uav.id == this.id;
 	}
 
+	@Override
+	public int hashCode(){
+		return this.id;
+	}
+
 	@Override
 	public String toString(){
 		return id+"UAV-"+x+","+y+","+z+"-"+action;
@@ -0,0 +1,157 @@
+package sim.app.firecontrol;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Anisotropic spread driven by the wind, the slope and the fuel of the
+ * terrain, read from the layers of the simulation:
+ * - windX, windY, direction and speed the wind is blowing to
+ * - elevation, the fire runs faster uphill than downhill
+ * - fuel, multiplier of the spread (0 means the cell cannot take fire)
+ * Any missing layer is neutral.
+ *
+ * A normal cell loses status according to its most dangerous burning
+ * neighbor. The wind of every cell is quantized in a few speeds and sectors,
+ * a tile of the forest at a time the first time the fire gets there, and
+ * the effect of the wind and of the slope along each direction is
+ * tabulated: a step costs a few table lookups per burning neighbor and no
+ * Math.exp, as the isotropic model.
+ */
+public class WindSlopeKernel extends SpreadKernel{
+	private static final long serialVersionUID = 1L;
+
+	static final int SPEEDS = 16;
+	static final int SECTORS = 16;
+	static final int SLOPES = 1024;
+	static final double MAX_SLOPE = 4; //rise over run, steeper slopes are clamped
+
+	public double windCoefficient = 0.5; //effect of a unit of wind speed along the spread
+	public double slopeCoefficient = 1.5; //effect of a unit of slope along the spread
+	public double cellSize = 1; //side of a cell, in the units of the elevation
+	public double maxWindSpeed = 0; //speed of the strongest wind, 0 to find it in the layers
+
+	//layers and tables, taken from the simulation by prepare
+	private transient Raster elevation;
+	private transient Raster fuel;
+	private transient Raster windX;
+	private transient Raster windY;
+	private transient double maxSpeed;
+	//quantized wind of every cell (speed*SECTORS + sector), by tile of the
+	//forest, null without wind
+	private transient AtomicReferenceArray<byte[]> wind;
+	//effect of the wind of a class along the 8 directions
+	private transient double[] windFactor;
+	//effect of the slope, over [-MAX_SLOPE, MAX_SLOPE]
+	private transient double[] slopeFactor;
+	//distance from the neighbors, in the units of the elevation
+	private transient double[] run;
+
+	@Override
+	public void prepare(Ignite ignite){
+		super.prepare(ignite);
+		elevation = ignite.elevation;
+		fuel = ignite.fuel;
+		windX = ignite.windX;
+		windY = ignite.windY;
+
+		run = new double[8];
+		for(int d=0; d<8; d++){
+			run[d] = cellSize*Math.sqrt(DX[d]*DX[d] + DY[d]*DY[d]);
+		}
+
+		slopeFactor = new double[SLOPES+1];
+		for(int i=0; i<=SLOPES; i++){
+			double slope = -MAX_SLOPE + 2*MAX_SLOPE*i/SLOPES;
+			slopeFactor[i] = Math.exp(slopeCoefficient*slope);
+		}
+
+		wind = null;
+		if(windX != null && windY != null){
+			maxSpeed = maxWindSpeed;
+			if(maxSpeed <= 0){
+				//row by row, in the order of the samples of the rasters
+				for(int y=0; y<ignite.height; y++){
+					for(int x=0; x<ignite.width; x++){
+						maxSpeed = Math.max(maxSpeed, Math.hypot(windX.get(x, y), windY.get(x, y)));
+					}
+				}
+			}
+
+			windFactor = new double[SPEEDS*SECTORS*8];
+			for(int s=0; s<SPEEDS; s++){
+				double speed = maxSpeed*s/(SPEEDS-1);
+				for(int c=0; c<SECTORS; c++){
+					double angle = 2*Math.PI*c/SECTORS;
+					for(int d=0; d<8; d++){
+						//the fire moves from the neighbor d to the cell
+						double cos = (-DX[d]*Math.cos(angle) - DY[d]*Math.sin(angle))/Math.hypot(DX[d], DY[d]);
+						windFactor[(s*SECTORS + c)*8 + d] = Math.exp(windCoefficient*speed*cos);
+					}
+				}
+			}
+
+			wind = new AtomicReferenceArray<>(ignite.forest.tiles());
+		}
+	}
+
+	//quantize the wind of a tile of the forest. Stripes may do it at the same
+	//time, the result is always the same and is only published once complete
+	private byte[] quantize(Forest forest, int tile){
+		byte[] classes = new byte[Forest.TILE_CELLS];
+		int base = tile << Forest.TILE_CELLS_SHIFT;
+		for(int i=0; i<Forest.TILE_CELLS; i++){
+			int x = forest.x(base | i);
+			int y = forest.y(base | i);
+			if(forest.isInBounds(x, y)){
+				double wx = windX.get(x, y);
+				double wy = windY.get(x, y);
+				int s = maxSpeed == 0 ? 0 : (int)Math.round(Math.min(1, Math.hypot(wx, wy)/maxSpeed)*(SPEEDS-1));
+				int c = (int)Math.round(Math.atan2(wy, wx)/(2*Math.PI)*SECTORS);
+				c = ((c % SECTORS) + SECTORS) % SECTORS;
+				classes[i] = (byte)(s*SECTORS + c);
+			}
+		}
+		wind.set(tile, classes);
+		return classes;
+	}
+
+	@Override
+	public double spread(Forest forest, int x, int y, int burning, double random){
+		double fuel = this.fuel == null ? 1 : this.fuel.get(x, y);
+		if(fuel <= 0){
+			return 0;
+		}
+
+		int windClass = -1;
+		if(wind != null){
+			int index = forest.index(x, y);
+			byte[] classes = wind.get(index >>> Forest.TILE_CELLS_SHIFT);
+			if(classes == null){
+				classes = quantize(forest, index >>> Forest.TILE_CELLS_SHIFT);
+			}
+			windClass = (classes[index & (Forest.TILE_CELLS-1)] & 0xFF)*8;
+		}
+		double factor = 0;
+		for(int d=0; d<8; d++){
+			if((burning & (1 << d)) != 0){
+				double f = 1;
+				if(windClass >= 0){
+					f *= windFactor[windClass + d];
+				}
+				if(elevation != null){
+					double rise = elevation.get(x, y) - elevation.get(x+DX[d], y+DY[d]);
+					f *= slope(rise/run[d]);
+				}
+				if(f > factor){
+					factor = f;
+				}
+			}
+		}
+		return fuel*factor*isotropic(random);
+	}
+
+	private double slope(double slope){
+		int i = (int)Math.round((slope + MAX_SLOPE)/(2*MAX_SLOPE)*SLOPES);
+		return slopeFactor[Math.max(0, Math.min(SLOPES, i))];
+	}
+}
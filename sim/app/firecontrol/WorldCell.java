@@ -1,10 +1,5 @@
 package sim.app.firecontrol;
 
-import sim.engine.SimState;
-import sim.engine.Steppable;
-import sim.util.Double3D;
-import sim.util.Int2D;
-
 /**
  * Abstract class that implements a generic cell
  * There are 4 different kinds of forest cell:
@@ -13,34 +8,25 @@ import sim.util.Int2D;
  * - burned, there is nothing left to save
  * - water, the cell is part of a lake or a river
  *
+ * A cell is a lightweight view over the Forest: the state is not stored here
+ * but read and written through the primitive arrays of the forest.
+ * Cells are not scheduled, the fire is stepped by the FireFront.
+ * The params of the fire are part of the simulation, see Ignite.
+ *
  * @author dario albani
  * @mail albani@dis.uniroma1.it
  */
-public class WorldCell implements Steppable{
+public class WorldCell implements java.io.Serializable{
 	private static final long serialVersionUID = 1L;
 	public int x; //cell x location
 	public int y; //cell y location
-	public CellType type; //type of the cell
-
-	//params
-	public static double statusThreshold = 10E-3;
-	public static double normalStatusMultiplier = 10E-3;
-	public static double fireStatusMultiplier = 5*10E-4;
-	public static double selfIgniteThreshold = 1-10E-5;
-	public static int selfIgniteMax;
-
-	//if this reach 0 and
-	// - the type is normal, the type becomes fire
-	// - the type is fire, the type becomes burned
-	private double status = 1;
-	//avoid to enhance the fire status of a cell more than once per step
-	private boolean enhanced = false;
+	public Forest forest; //where the state of the cell is stored
 
 	/* Constructor*/
-	public WorldCell(int x, int y, CellType type){
+	public WorldCell(Forest forest, int x, int y){
+		this.forest = forest;
 		this.x = x;
 		this.y = y;
-		this.type = type;
 	}
 
 	//GETTERS
@@ -53,11 +39,18 @@ public class WorldCell implements Steppable{
 	}
 
 	public CellType getType(){
-		return this.type;
+		return forest.getType(x, y);
 	}
 
 	public void setType(CellType type){
-		this.type = type;
+		forest.setType(x, y, type);
+	}
+
+	//if this reach 0 and
+	// - the type is normal, the type becomes fire
+	// - the type is fire, the type becomes burned
+	public double getStatus(){
+		return forest.getStatus(forest.index(x, y));
 	}
 
 	/**
@@ -65,93 +58,38 @@ public class WorldCell implements Steppable{
 	 * Call it whenever a UAV is over this.
 	 */
 	public void extinguish(Ignite ignite){
-		if(this.type.equals(CellType.FIRE)){
-			this.type = CellType.EXTINGUISHED;
-			Ignite.cellsOnFire--;
-			this.status = 1;
-			//notify the tasks to let them compute the update
-			for(Task t : ignite.tasks){
-				if(t.notifyExtinguishedFire(this)){
-					//remove only from the (there must be only one) task
-					//that contain this
-					break;
-				}
+		int index = forest.index(x, y);
+		if(forest.getType(index).equals(CellType.FIRE)){
+			forest.setType(index, CellType.EXTINGUISHED);
+			ignite.cellsOnFire--;
+			forest.setStatus(index, 1);
+			ignite.front.notifyTypeChanged(ignite, index);
+			ignite.notifyFireOut(index);
+			//notify the task (there must be only one) that contains this
+			Task t = ignite.clusters.notifyExtinguishedFire(index);
+			if(t != null){
+				t.notifyExtinguishedFire(this);
 			}
 		}
 	}
 
 	public boolean isNeighborOf(WorldCell wc) {
-		Int2D myPos = new Int2D(this.x, this.y);
-		Int2D otherPos = new Int2D(wc.x, wc.y);
-		return myPos.distance(otherPos)<2;
+		return Math.abs(this.x - wc.x) <= 1 && Math.abs(this.y - wc.y) <= 1;
 	}
 
 	@Override
-	public void step(SimState state) {
-		Ignite ignite = (Ignite) state;
-
-		enhanced = false;
-
-		if(this.type.equals(CellType.WATER) || this.type.equals(CellType.BURNED)){
-			return;
-		} else if(this.type.equals(CellType.FIRE)){
-			//update the status
-			status -= fireStatusMultiplier*status*ignite.gaussianPDF(0, ignite.random.nextDouble(), 0.2);
+	public boolean equals(Object obj){
+		WorldCell cell = (WorldCell) obj;
+		return cell.x == this.x && cell.y == this.y;
+	}
 
-			//propagate fire to neighbors
-			for(int i=-1; i<=1; i++){
-				for(int j=-1; j<=1; j++){
-					if(Ignite.isInBounds(new Double3D(this.x+i, this.y+j, 1))){
-						WorldCell neighbor = ((WorldCell)ignite.forest.field[this.x+i][this.y+j]);
-						if(neighbor.type.equals(CellType.NORMAL) && !neighbor.enhanced){
-							neighbor.status -= normalStatusMultiplier*ignite.gaussianPDF(0, 2*ignite.random.nextDouble(), 0.2);
-							neighbor.enhanced = true;
-						}
-					}
-				}
-			}
-			//update own status
-			if(status<statusThreshold){
-				this.type = CellType.BURNED;
-				Ignite.cellsOnFire--;
-				Ignite.cellsBurned++;
-			}
-		} else if(this.type.equals(CellType.NORMAL)){
-			//check status
-			//and there is a random probably that the cell with take fire by itself
-			if(this.status < statusThreshold){
-				this.type = CellType.FIRE;
-				this.status = 1;
-				Ignite.cellsOnFire++;
-				//notify the tasks to let them compute the update
-				for(Task t : ignite.tasks){
-					if(t.notifyNewFire(this)){
-						//add only to one task
-						break;
-					}
-				}
-			}else if(selfIgniteMax > 0){
-				if(ignite.schedule.getSteps()!=0 &&
-						ignite.schedule.getSteps()%500==0 &&
-						ignite.random.nextDouble()>selfIgniteThreshold){
-					this.type = CellType.FIRE;
-					this.status = 1;
-					Ignite.cellsOnFire++;
-					selfIgniteMax--;
-					//generate a new task
-					Task t = new Task(ignite.tasks.size()+1, new Int2D(this.x, this.y), 0);
-					t.addCell(this);
-					ignite.tasks.add(t);
-					t.selectManager(ignite);
-					//t.manager.myTask = t;
-				}
-			}
-		}
+	@Override
+	public int hashCode(){
+		return 31*this.x + this.y;
 	}
 
 	@Override
-	public boolean equals(Object obj){
-		WorldCell cell = (WorldCell) obj;
-		return cell.x == this.x && cell.y == this.y;
+	public String toString(){
+		return "WorldCell-" + x + "," + y + "-" + getType();
 	}
 }
@@ -0,0 +1,399 @@
+package sim.app.firecontrol;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+
+import sim.engine.ParallelSequence;
+import sim.engine.SimState;
+import sim.engine.Steppable;
+import sim.util.IntBag;
+
+/**
+ * Procedural generator of the world of a run: lakes, rivers, fuel patches and
+ * the clusters of the first fires.
+ * Every feature is a shape with a bounding box, its border is jagged by value
+ * noise. The shapes are bucketed by the tiles of the forest they cover and the
+ * tiles are filled by the workers on their own (see Fill), then the cells are
+ * written to the forest in the order of the tiles. Only the tiles covered by
+ * a shape are visited, the rest of the forest stays NORMAL and is never
+ * materialized, so the cost does not depend on the size of the map.
+ *
+ * All the random numbers are hashes of a seed drawn from the random of the
+ * simulation (see FireFront.random): the world is the same for the same seed,
+ * whatever the number of threads. The fuel is a noise field computed on
+ * demand, nothing is stored.
+ */
+public class WorldGenerator implements java.io.Serializable{
+	private static final long serialVersionUID = 1L;
+
+	//salts of the features, to draw independent numbers from the same seed
+	static final int LAKE = 1;
+	static final int RIVER = 2;
+	static final int IGNITION = 3;
+	static final int FUEL = 4;
+	//points of a river in the same shape
+	static final int CHUNK = 32;
+	//tries to place a feature before giving up
+	static final int MAX_TRIES = 100;
+
+	public int lakes = 2;
+	public double lakeRadius = 5;
+	public int rivers = 0;
+	public double riverWidth = 2;
+	public int riverLength = 0; //0 to cross the whole map
+	public double fireRadius = 2.5;
+	public boolean fuel = false; //fuel patches, see WindSlopeKernel
+	public double fuelScale = 50; //size of the fuel patches, in cells
+	public int threads = 1;
+
+	private long seed;
+
+	/**
+	 * Draw the seed of the world, once per run.
+	 */
+	public void reset(Ignite ignite){
+		seed = ignite.random.nextLong();
+	}
+
+	/**
+	 * Fill the forest with lakes and rivers.
+	 */
+	public void generateWater(Ignite ignite){
+		Forest forest = ignite.forest;
+		ArrayList<Shape> shapes = new ArrayList<>();
+		for(int l=0; l<lakes; l++){
+			double x = random(LAKE, l, 0)*forest.width;
+			double y = random(LAKE, l, 1)*forest.height;
+			double r = lakeRadius*(0.5 + random(LAKE, l, 2));
+			shapes.add(new Lake(x, y, r, seed(LAKE, l)));
+		}
+		for(int r=0; r<rivers; r++){
+			addRiver(forest, r, shapes);
+		}
+		fill(ignite, shapes, CellType.WATER);
+	}
+
+	/**
+	 * Set the fires of the forest, ignite.fires clusters away from the water
+	 * and from each other. Every connected group of fires is a task, there are
+	 * fewer tasks than ignite.fires if some clusters found no room.
+	 */
+	public void generateFires(Ignite ignite){
+		Forest forest = ignite.forest;
+		ArrayList<Shape> shapes = new ArrayList<>();
+		//coarse grid of the centers, a cluster is not placed next to another
+		int spacing = (int)Math.ceil(2*fireRadius) + 2;
+		int columns = (forest.width + spacing - 1)/spacing;
+		int rows = (forest.height + spacing - 1)/spacing;
+		BitSet taken = new BitSet(columns*rows);
+		for(int f=0; f<ignite.fires; f++){
+			for(int t=0; t<MAX_TRIES; t++){
+				int x = (int)(random(IGNITION, f, 2*t)*forest.width);
+				int y = (int)(random(IGNITION, f, 2*t+1)*forest.height);
+				int column = x/spacing;
+				int row = y/spacing;
+				if(forest.getType(x, y).equals(CellType.NORMAL) && !near(taken, column, row, columns, rows)){
+					taken.set(column*rows + row);
+					shapes.add(new Lake(x + 0.5, y + 0.5, fireRadius, seed(IGNITION, f)));
+					break;
+				}
+			}
+		}
+		ignite.cellsOnFire += fill(ignite, shapes, CellType.FIRE);
+		ignite.groupFires();
+	}
+
+	/**
+	 * Patches of fuel, between 0.5 and 1.5, over the whole forest.
+	 */
+	public Raster fuel(final Forest forest){
+		final long fuelSeed = seed(FUEL, 0);
+		final double scale = fuelScale;
+		return new Raster(){
+			public int getWidth(){ return forest.width; }
+			public int getHeight(){ return forest.height; }
+			public double get(int x, int y){
+				return 0.5 + (noise(fuelSeed, x/scale, y/scale) + noise(fuelSeed + 1, 2*x/scale, 2*y/scale)/2)/1.5;
+			}
+		};
+	}
+
+	//true if the cell of the grid or one of its neighbors is taken
+	private static boolean near(BitSet taken, int column, int row, int columns, int rows){
+		for(int c=Math.max(0, column-1); c<=Math.min(columns-1, column+1); c++){
+			for(int r=Math.max(0, row-1); r<=Math.min(rows-1, row+1); r++){
+				if(taken.get(c*rows + r)){
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	//a meandering path from a random point, until it leaves the map
+	private void addRiver(Forest forest, int river, ArrayList<Shape> shapes){
+		double x = random(RIVER, river, 0)*forest.width;
+		double y = random(RIVER, river, 1)*forest.height;
+		double heading = random(RIVER, river, 2)*2*Math.PI;
+		long riverSeed = seed(RIVER, river);
+		int length = riverLength > 0 ? riverLength : forest.width + forest.height;
+		double[] points = new double[2*CHUNK];
+		int count = 0;
+		for(int s=0; s<length && forest.isInBounds((int)x, (int)y); s++){
+			points[2*count] = x;
+			points[2*count+1] = y;
+			if(++count == CHUNK){
+				shapes.add(new River(points, count, riverWidth/2));
+				//the next chunk starts where this one ends, no gap
+				points = new double[2*CHUNK];
+				points[0] = x;
+				points[1] = y;
+				count = 1;
+			}
+			heading += (noise(riverSeed, s/20.0, 0) - 0.5)*0.3;
+			x += Math.cos(heading);
+			y += Math.sin(heading);
+		}
+		if(count > 1){
+			shapes.add(new River(points, count, riverWidth/2));
+		}
+	}
+
+	/**
+	 * Set to the given type the NORMAL cells covered by the shapes.
+	 * @return the number of cells set
+	 */
+	private int fill(Ignite ignite, ArrayList<Shape> shapes, CellType type){
+		Forest forest = ignite.forest;
+		//bucket the shapes by tile, null for the tiles without shapes
+		ArrayList<ArrayList<Shape>> byTile = new ArrayList<>(Collections.nCopies(forest.tiles(), (ArrayList<Shape>)null));
+		IntBag covered = new IntBag();
+		for(Shape shape : shapes){
+			int fromX = Math.max(0, shape.minX) >> Forest.TILE_SHIFT;
+			int toX = Math.min(forest.width - 1, shape.maxX) >> Forest.TILE_SHIFT;
+			int fromY = Math.max(0, shape.minY) >> Forest.TILE_SHIFT;
+			int toY = Math.min(forest.height - 1, shape.maxY) >> Forest.TILE_SHIFT;
+			for(int tx=fromX; tx<=toX; tx++){
+				for(int ty=fromY; ty<=toY; ty++){
+					int tile = tx*forest.tilesY + ty;
+					if(byTile.get(tile) == null){
+						byTile.set(tile, new ArrayList<Shape>());
+						covered.add(tile);
+					}
+					byTile.get(tile).add(shape);
+				}
+			}
+		}
+		covered.sort();
+
+		//find the cells of every tile, then write them in order
+		IntBag[] cells = new IntBag[covered.numObjs];
+		int workers = Math.max(1, Math.min(threads, covered.numObjs));
+		Fill[] fills = new Fill[workers];
+		for(int w=0; w<workers; w++){
+			fills[w] = new Fill(forest, byTile, covered, cells, w, workers);
+		}
+		if(workers > 1){
+			ParallelSequence sequence = new ParallelSequence(fills, workers);
+			sequence.step(ignite);
+			sequence.cleanup();
+		} else {
+			fills[0].step(ignite);
+		}
+
+		int set = 0;
+		for(IntBag tile : cells){
+			for(int i=0; i<tile.numObjs; i++){
+				if(forest.getType(tile.objs[i]).equals(CellType.NORMAL)){
+					forest.setType(tile.objs[i], type);
+					set++;
+				}
+			}
+		}
+		return set;
+	}
+
+	//uniform random number in [0,1) for the given feature
+	private double random(int feature, int k, int draw){
+		return FireFront.random(seed(feature, k), 0, draw);
+	}
+
+	//seed of the noise of the given feature
+	private long seed(int feature, int k){
+		return seed ^ (feature*0x632BE59BD9B4E019L + k*0x9E3779B97F4A7C15L);
+	}
+
+	/**
+	 * Value noise in [0,1), smooth between the corners of the unit grid.
+	 */
+	static double noise(long seed, double x, double y){
+		long x0 = (long)Math.floor(x);
+		long y0 = (long)Math.floor(y);
+		double fx = smooth(x - x0);
+		double fy = smooth(y - y0);
+		double a = lattice(seed, x0, y0);
+		double b = lattice(seed, x0 + 1, y0);
+		double c = lattice(seed, x0, y0 + 1);
+		double d = lattice(seed, x0 + 1, y0 + 1);
+		return (a + (b - a)*fx)*(1 - fy) + (c + (d - c)*fx)*fy;
+	}
+
+	private static double lattice(long seed, long x, long y){
+		return FireFront.random(seed, x, (int)y);
+	}
+
+	private static double smooth(double t){
+		return t*t*(3 - 2*t);
+	}
+
+	/**
+	 * A feature of the world, its cells are within the bounding box.
+	 */
+	static abstract class Shape{
+		int minX, minY, maxX, maxY;
+
+		/**
+		 * Set the bits of the cells of the shape in [x0,x1) x [y0,y1), the
+		 * part of a tile in the forest. Bits are by index within the tile.
+		 */
+		abstract void mark(int x0, int y0, int x1, int y1, long[] bits);
+
+		static void set(long[] bits, int x, int y){
+			int local = ((x & (Forest.TILE-1)) << Forest.TILE_SHIFT) | (y & (Forest.TILE-1));
+			bits[local >>> 6] |= 1L << local;
+		}
+	}
+
+	/**
+	 * A round shape, its radius changes with the direction from the center.
+	 */
+	static class Lake extends Shape{
+		final double x, y, radius;
+		final long seed;
+
+		Lake(double x, double y, double radius, long seed){
+			this.x = x;
+			this.y = y;
+			this.radius = radius;
+			this.seed = seed;
+			minX = (int)Math.floor(x - 1.3*radius);
+			minY = (int)Math.floor(y - 1.3*radius);
+			maxX = (int)Math.ceil(x + 1.3*radius);
+			maxY = (int)Math.ceil(y + 1.3*radius);
+		}
+
+		void mark(int x0, int y0, int x1, int y1, long[] bits){
+			for(int cx=Math.max(x0, minX); cx<Math.min(x1, maxX + 1); cx++){
+				for(int cy=Math.max(y0, minY); cy<Math.min(y1, maxY + 1); cy++){
+					double dx = cx + 0.5 - x;
+					double dy = cy + 0.5 - y;
+					//noise along a circle, so that the border closes without a step
+					double d = Math.sqrt(dx*dx + dy*dy);
+					double r = radius*(0.7 + 0.6*(d == 0 ? 0.5 : noise(seed, 2 + 1.5*dx/d, 2 + 1.5*dy/d)));
+					if(d <= r){
+						set(bits, cx, cy);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * A piece of river, the cells close to its points.
+	 */
+	static class River extends Shape{
+		final double[] points;
+		final int count;
+		final double halfWidth;
+
+		River(double[] points, int count, double halfWidth){
+			this.points = points;
+			this.count = count;
+			this.halfWidth = halfWidth;
+			double x0 = Double.MAX_VALUE, y0 = Double.MAX_VALUE;
+			double x1 = -Double.MAX_VALUE, y1 = -Double.MAX_VALUE;
+			for(int i=0; i<count; i++){
+				x0 = Math.min(x0, points[2*i]);
+				y0 = Math.min(y0, points[2*i+1]);
+				x1 = Math.max(x1, points[2*i]);
+				y1 = Math.max(y1, points[2*i+1]);
+			}
+			minX = (int)Math.floor(x0 - halfWidth);
+			minY = (int)Math.floor(y0 - halfWidth);
+			maxX = (int)Math.ceil(x1 + halfWidth);
+			maxY = (int)Math.ceil(y1 + halfWidth);
+		}
+
+		void mark(int x0, int y0, int x1, int y1, long[] bits){
+			//a disc around every point, the cells already set are set again
+			for(int i=0; i<count; i++){
+				double px = points[2*i];
+				double py = points[2*i+1];
+				int fromX = Math.max(x0, (int)Math.floor(px - halfWidth));
+				int toX = Math.min(x1, (int)Math.ceil(px + halfWidth) + 1);
+				int fromY = Math.max(y0, (int)Math.floor(py - halfWidth));
+				int toY = Math.min(y1, (int)Math.ceil(py + halfWidth) + 1);
+				for(int cx=fromX; cx<toX; cx++){
+					for(int cy=fromY; cy<toY; cy++){
+						double dx = cx + 0.5 - px;
+						double dy = cy + 0.5 - py;
+						if(dx*dx + dy*dy <= halfWidth*halfWidth){
+							set(bits, cx, cy);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * The cells covered by the shapes, for a share of the tiles.
+	 * The forest is only read, the cells of a tile are marked in a bitset,
+	 * so that a cell covered by many shapes is found once.
+	 */
+	static class Fill implements Steppable{
+		private static final long serialVersionUID = 1L;
+
+		private Forest forest;
+		private ArrayList<ArrayList<Shape>> byTile;
+		private IntBag covered;
+		private IntBag[] cells;
+		private int worker;
+		private int workers;
+		private long[] bits = new long[Forest.TILE_CELLS >>> 6];
+
+		Fill(Forest forest, ArrayList<ArrayList<Shape>> byTile, IntBag covered, IntBag[] cells, int worker, int workers){
+			this.forest = forest;
+			this.byTile = byTile;
+			this.covered = covered;
+			this.cells = cells;
+			this.worker = worker;
+			this.workers = workers;
+		}
+
+		@Override
+		public void step(SimState state){
+			for(int k=worker; k<covered.numObjs; k+=workers){
+				int tile = covered.objs[k];
+				int x0 = (tile/forest.tilesY) << Forest.TILE_SHIFT;
+				int y0 = (tile%forest.tilesY) << Forest.TILE_SHIFT;
+				int x1 = Math.min(forest.width, x0 + Forest.TILE);
+				int y1 = Math.min(forest.height, y0 + Forest.TILE);
+				Arrays.fill(bits, 0);
+				for(Shape shape : byTile.get(tile)){
+					shape.mark(x0, y0, x1, y1, bits);
+				}
+				IntBag found = new IntBag();
+				int base = tile << Forest.TILE_CELLS_SHIFT;
+				for(int w=0; w<bits.length; w++){
+					for(long word=bits[w]; word!=0; word&=word-1){
+						found.add(base | (w << 6) | Long.numberOfTrailingZeros(word));
+					}
+				}
+				cells[k] = found;
+			}
+		}
+	}
+}
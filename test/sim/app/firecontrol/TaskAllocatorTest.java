@@ -0,0 +1,71 @@
+package sim.app.firecontrol;
+
+import java.util.ArrayList;
+
+/**
+ * Checks of the allocation of the tasks, run by "make test".
+ * A task reduced to a single cell on fire has no extent around its
+ * centroid, but it is not finished until that cell is extinguished.
+ */
+public class TaskAllocatorTest{
+
+	public static void main(String[] args){
+		oneBurningCell(new AuctionAllocator());
+		oneBurningCell(new GreedyAllocator());
+		System.out.println("TaskAllocatorTest: OK");
+	}
+
+	static void oneBurningCell(TaskAllocator allocator){
+		Ignite ignite = new Ignite(1);
+		ignite.writeResults = false;
+		ignite.writeSeries = false;
+		ignite.allocator = allocator;
+		ignite.start();
+
+		//all the fires are extinguished but one cell of the first task
+		Task task = ignite.tasks.getFirst();
+		WorldCell last = task.cells.iterator().next();
+		for(Task t : new ArrayList<>(ignite.tasks)){
+			for(WorldCell cell : new ArrayList<>(t.cells)){
+				if(cell != last){
+					cell.extinguish(ignite);
+				}
+			}
+		}
+		check(task.cells.size() == 1, "the task has one cell left");
+		check(task.radius == 0, "a single cell has no extent");
+		check(!task.isDone(), "the task is not done");
+		if(task.manager == null){
+			task.selectManager(ignite);
+		}
+
+		//a free UAV bids for it and gets it
+		UAV bidder = null;
+		for(UAV uav : ignite.UAVs){
+			if(uav != task.manager && uav.myTask == null){
+				bidder = uav;
+				break;
+			}
+		}
+		allocator.propose(bidder, task, 1);
+		allocator.step(ignite);
+		check(ignite.tasks.contains(task), "the task is still allocated");
+		check(bidder.myTask == task, "the bidder joined the task");
+		int index = ignite.forest.index(last.x, last.y);
+		check(ignite.clusters.taskOf(index) == task, "the cell still belongs to the task");
+
+		//once the cell is extinguished the task is dropped
+		last.extinguish(ignite);
+		check(task.isDone(), "the task is done");
+		allocator.propose(bidder, task, 1);
+		allocator.step(ignite);
+		check(!ignite.tasks.contains(task), "the task is dropped");
+		ignite.finish();
+	}
+
+	static void check(boolean condition, String what){
+		if(!condition){
+			throw new AssertionError(what);
+		}
+	}
+}